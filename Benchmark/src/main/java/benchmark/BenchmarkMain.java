@@ -0,0 +1,22 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the JMH benchmarks of this module. Unless the arguments choose another result format, results are written as
+ * JSON to {@code jmh-result.json}, so that runs of different versions can be compared. Any JMH argument is accepted,
+ * e.g. a benchmark name pattern or {@code -f 1 -wi 2 -i 3} for a quick run.
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+
+        if (!jmhArgs.contains("-rf")) {
+            jmhArgs.addAll(Arrays.asList("-rf", "json", "-rff", "jmh-result.json"));
+        }
+
+        org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,57 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One round of the Lamport queue of a file holding a number of pending requests: a request is added, the oldest
+ * request is looked up, and the request is removed again by sender and timestamp, as a release does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandQueueBenchmark {
+    private static final Class<?> MESSAGE = ProjectClasses.type("Message");
+    private static final Class<?> MESSAGE_TYPE = ProjectClasses.type("Message$MessageType");
+    private static final MethodHandle NEW_MESSAGE = ProjectClasses.constructor("Message", String.class, MESSAGE_TYPE, long.class, String.class);
+    private static final MethodHandle NEW_QUEUE = ProjectClasses.constructor("CommandQueue", String.class);
+    private static final MethodHandle ADD = ProjectClasses.method("CommandQueue", "add", void.class, MESSAGE);
+    private static final MethodHandle PEEK = ProjectClasses.method("CommandQueue", "peek", MESSAGE);
+    private static final MethodHandle REMOVE_REQUEST = ProjectClasses.method("CommandQueue", "removeRequest", MESSAGE, String.class, long.class);
+    private static final Object WRITE_ACQUIRE_REQUEST = ProjectClasses.enumConstant("Message$MessageType", "WriteAcquireRequest");
+
+    @Param({"16", "256", "4096"})
+    private int queueSize;
+
+    private Object commandQueue;
+    private long timeStamp;
+
+    @Setup
+    public void setUp() throws Throwable {
+        commandQueue = NEW_QUEUE.invoke("File0.txt");
+
+        for (int i = 0; i < queueSize; i++) {
+            String senderName = String.format("Server%d", i % 7);
+            ADD.invoke(commandQueue, NEW_MESSAGE.invoke(senderName, WRITE_ACQUIRE_REQUEST, i * 2, "File0.txt|line"));
+        }
+
+        timeStamp = queueSize * 2;
+    }
+
+    @Benchmark
+    public Object addPeekRemove() throws Throwable {
+        // the release of a request names its sender and timestamp, see LamportMutualExclusion
+        long requestTimeStamp = timeStamp++;
+        ADD.invoke(commandQueue, NEW_MESSAGE.invoke("Server9", WRITE_ACQUIRE_REQUEST, requestTimeStamp, "File0.txt|line"));
+
+        Object head = PEEK.invoke(commandQueue);
+        REMOVE_REQUEST.invoke(commandQueue, "Server9", requestTimeStamp);
+
+        return head;
+    }
+}
@@ -0,0 +1,92 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appending one line to a file of a given size, by opening it every time through {@code FileUtil} and through the
+ * open channels of {@code FileAppenderPool}, and reading the whole file back as servers send it to readers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FileUtilBenchmark {
+    private static final MethodHandle APPEND_TO_FILE = ProjectClasses.staticMethod("FileUtil", "appendToFile", void.class, String.class, String.class);
+    private static final MethodHandle GET_FILE_CONTENT = ProjectClasses.staticMethod("FileUtil", "getFileContent", String.class, String.class);
+    private static final MethodHandle NEW_POOL = ProjectClasses.constructor("FileAppenderPool");
+    private static final MethodHandle APPEND = ProjectClasses.method("FileAppenderPool", "append", void.class, String.class, List.class);
+
+    @Param({"100", "10000", "100000"})
+    private int lineCount;
+
+    private Path directory;
+    private String appendFileName;
+    private String readFileName;
+    private Object fileAppenderPool;
+    private List<String> lines;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        directory = Files.createTempDirectory("benchmark");
+        readFileName = directory.resolve("Read.txt").toString();
+        lines = Collections.singletonList("Client0 message #42");
+
+        List<String> fileLines = new ArrayList<>();
+
+        for (int i = 0; i < lineCount; i++) {
+            fileLines.add(String.format("Client%d message #%d", i % 5, i));
+        }
+
+        Files.write(directory.resolve("Read.txt"), fileLines);
+        fileAppenderPool = NEW_POOL.invoke();
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws IOException {
+        // every iteration appends to a fresh copy of the file, so that its size stays about the same
+        Path appendPath = directory.resolve("Append.txt");
+        Files.deleteIfExists(appendPath);
+        Files.copy(directory.resolve("Read.txt"), appendPath);
+        appendFileName = appendPath.toString();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws IOException {
+        // the next iteration replaces the file, so its channel must not stay open
+        ((Closeable) fileAppenderPool).close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (Path path : new Path[]{directory.resolve("Append.txt"), directory.resolve("Read.txt"), directory}) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Benchmark
+    public void appendToFile() throws Throwable {
+        APPEND_TO_FILE.invoke(appendFileName, lines.get(0));
+    }
+
+    @Benchmark
+    public void appendThroughPool() throws Throwable {
+        APPEND.invoke(fileAppenderPool, appendFileName, lines);
+    }
+
+    @Benchmark
+    public String getFileContent() throws Throwable {
+        return (String) GET_FILE_CONTENT.invoke(readFileName);
+    }
+}
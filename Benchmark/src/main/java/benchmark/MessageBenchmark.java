@@ -0,0 +1,91 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a message into its wire form and back, in the text form sent with {@code writeUTF} and in the
+ * binary form of {@code MessageCodec}, and of splitting a payload into file name and data.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageBenchmark {
+    private static final Class<?> MESSAGE = ProjectClasses.type("Message");
+    private static final Class<?> MESSAGE_TYPE = ProjectClasses.type("Message$MessageType");
+    private static final MethodHandle NEW_MESSAGE = ProjectClasses.constructor("Message", String.class, MESSAGE_TYPE, long.class, String.class);
+    private static final MethodHandle PARSE_MESSAGE = ProjectClasses.constructor("Message", String.class);
+    private static final MethodHandle TO_STRING = ProjectClasses.method("Message", "toString", String.class);
+    private static final MethodHandle GET_FILE_NAME = ProjectClasses.method("Message", "getFileNameFromPayload", String.class);
+    private static final MethodHandle GET_DATA = ProjectClasses.method("Message", "getDataFromPayload", String.class);
+    private static final MethodHandle NEW_CODEC = ProjectClasses.constructor("MessageCodec");
+    private static final MethodHandle ENCODE = ProjectClasses.method("MessageCodec", "encode", byte[].class, MESSAGE);
+    private static final MethodHandle DECODE = ProjectClasses.method("MessageCodec", "decode", MESSAGE, ByteBuffer.class);
+    private static final Object WRITE_SYNC_REQUEST = ProjectClasses.enumConstant("Message$MessageType", "WriteSyncRequest");
+
+    @Param({"16", "1024"})
+    private int dataLength;
+
+    private String payload;
+    private Object message;
+    private String messageAsString;
+    private Object encoder;
+    private Object decoder;
+    private byte[] encodedMessage;
+
+    @Setup
+    public void setUp() throws Throwable {
+        StringBuilder data = new StringBuilder();
+
+        while (data.length() < dataLength) {
+            data.append("Client0 message #").append(data.length()).append(' ');
+        }
+
+        payload = String.format("File3.txt|%s", data.substring(0, dataLength));
+        message = NEW_MESSAGE.invoke("Server0", WRITE_SYNC_REQUEST, 1234, payload);
+        messageAsString = (String) TO_STRING.invoke(message);
+
+        // the sender name travels once per connection, so encode it once before measuring
+        encoder = NEW_CODEC.invoke();
+        decoder = NEW_CODEC.invoke();
+        DECODE.invoke(decoder, ByteBuffer.wrap((byte[]) ENCODE.invoke(encoder, message)));
+        encodedMessage = (byte[]) ENCODE.invoke(encoder, message);
+    }
+
+    @Benchmark
+    public String toText() throws Throwable {
+        return (String) TO_STRING.invoke(message);
+    }
+
+    @Benchmark
+    public Object fromText() throws Throwable {
+        return PARSE_MESSAGE.invoke(messageAsString);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() throws Throwable {
+        return (byte[]) ENCODE.invoke(encoder, message);
+    }
+
+    @Benchmark
+    public Object decodeBinary() throws Throwable {
+        return DECODE.invoke(decoder, ByteBuffer.wrap(encodedMessage));
+    }
+
+    @Benchmark
+    public String getFileNameFromPayload() throws Throwable {
+        // a message parses its payload once, so every call needs a fresh one
+        return (String) GET_FILE_NAME.invoke(NEW_MESSAGE.invoke("Server0", WRITE_SYNC_REQUEST, 1234, payload));
+    }
+
+    @Benchmark
+    public String getDataFromPayload() throws Throwable {
+        return (String) GET_DATA.invoke(NEW_MESSAGE.invoke("Server0", WRITE_SYNC_REQUEST, 1234, payload));
+    }
+}
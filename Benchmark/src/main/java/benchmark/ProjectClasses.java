@@ -0,0 +1,63 @@
+package benchmark;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * The project classes live in the default package, which code in a package cannot refer to, while JMH only accepts
+ * benchmarks in a package. Benchmarks therefore reach the project classes through method handles kept in static final
+ * fields, which the JIT compiler treats as constants and inlines like direct calls.
+ */
+final class ProjectClasses {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private ProjectClasses() {
+    }
+
+    static Class<?> type(String className) {
+        try {
+            return Class.forName(className);
+        }
+        catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Object enumConstant(String className, String name) {
+        for (Object constant : type(className).getEnumConstants()) {
+            if (constant.toString().equals(name)) {
+                return constant;
+            }
+        }
+
+        throw new IllegalArgumentException(String.format("%s has no constant %s", className, name));
+    }
+
+    static MethodHandle constructor(String className, Class<?>... parameterTypes) {
+        try {
+            return LOOKUP.findConstructor(type(className), MethodType.methodType(void.class, parameterTypes));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MethodHandle method(String className, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return LOOKUP.findVirtual(type(className), name, MethodType.methodType(returnType, parameterTypes));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MethodHandle staticMethod(String className, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return LOOKUP.findStatic(type(className), name, MethodType.methodType(returnType, parameterTypes));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
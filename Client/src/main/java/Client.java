@@ -7,6 +7,7 @@ public class Client {
         try {
             String name = "Client0";
             ArrayList<ServerInfo> servers = new ArrayList<>();
+            Options options = new Options();
             String configurationFile;
 
             if(args == null || args.length == 0) {
@@ -45,9 +46,13 @@ public class Client {
                 for(String input : serversInput) {
                     servers.add(new ServerInfo(input));
                 }
+
+                while (scanner.hasNextLine()) {
+                    options.parse(scanner.nextLine());
+                }
             }
 
-            ClientNode clientNode = new ClientNode(name, servers);
+            ClientNode clientNode = new ClientNode(name, servers, options);
             clientNode.up();
         }
         catch(Exception e) {
@@ -1,27 +1,59 @@
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 public class ClientNode {
+    /**
+     * Replicas that must acknowledge a write before it counts as done: every reachable one, a majority of the replica
+     * set, or the first one.
+     */
+    public enum WriteQuorum {All, Majority, First}
+
+    public static final long DEFAULT_WRITE_TIMEOUT = 5000;
+
     @SuppressWarnings("FieldCanBeLocal")
     private final boolean IS_DEBUGGING = false;
-    private Logger logger = new Logger(Logger.LogLevel.Release);
-    private final int TIME_DIFFERENCE_BETWEEN_PROCESSES = 1;
-    private int localTime;
+    private Logger logger;
+    private LamportClock clock;
     private String name;
-    private LinkedHashMap<String, Socket> serverSockets;
+    private LinkedHashMap<String, ServerConnection> serverConnections;
+    private FailureDetector failureDetector;
+    private Options options;
+    private AtomicLong nextRequestId;
+    private ConcurrentHashMap<String, Integer> readOffsets;
+    private ScheduledExecutorService timeoutScheduler;
+    private PlacementRing placementRing;
 
     public ClientNode(String name, ArrayList<ServerInfo> servers) throws InterruptedException {
+        this(name, servers, new Options());
+    }
+
+    public ClientNode(String name, ArrayList<ServerInfo> servers, Options options) throws InterruptedException {
         this.name = name;
-        localTime = 0;
-        serverSockets = new LinkedHashMap<>();
-        populateServerSockets(servers);
+        this.options = options;
+        this.logger = new Logger(options);
+        clock = new LamportClock();
+        serverConnections = new LinkedHashMap<>();
+        failureDetector = new FailureDetector();
+        // servers drop writes whose id they have seen, so ids have to keep growing across restarts of the client
+        nextRequestId = new AtomicLong(System.currentTimeMillis() * 1000);
+        readOffsets = new ConcurrentHashMap<>();
+        timeoutScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        populateServerStreams(servers);
+        placementRing = new PlacementRing(serverConnections.keySet(),
+                options.getInt("placement.replicas", PlacementRing.DEFAULT_REPLICATION_FACTOR),
+                options.getInt("placement.virtualNodes", PlacementRing.DEFAULT_VIRTUAL_NODES));
     }
 
-    private void populateServerSockets(ArrayList<ServerInfo> servers) throws InterruptedException {
+    private void populateServerStreams(ArrayList<ServerInfo> servers) throws InterruptedException {
         List<String> connectedServers = new ArrayList<>();
 
         for (int trial = 0; trial < 2; trial++) {
@@ -30,19 +62,24 @@ public class ClientNode {
                     continue;
                 }
 
-                logger.debug(String.format("%s tries to connect to %s...", name, server));
+                logger.debug("%s tries to connect to %s...", name, server);
 
                 try {
                     Socket socket = new Socket(server.getIpAddress(), server.getPort());
-                    serverSockets.put(server.getName(), socket);
-                    sendMessage(socket, String.format("Client '%s'", this.name));
+                    MessageStream.Framing framing = options.getEnum("framing", MessageStream.Framing.Binary);
+                    MessageStream stream = MessageStream.connect(socket, String.format("Client '%s'", this.name), framing);
+                    int maxInFlight = options.getInt("request.maxInFlight", ServerConnection.DEFAULT_MAX_IN_FLIGHT);
+
+                    serverConnections.put(server.getName(), new ServerConnection(server.getName(), stream, maxInFlight, failureDetector,
+                            options.getEnum("threads", ThreadMode.Platform)));
+                    failureDetector.heartbeat(server.getName());
 
                     connectedServers.add(server.getName());
-                    logger.debug(String.format("%s successfully connects to %s", name, server));
+                    logger.debug("%s successfully connects to %s", name, server);
                 }
                 catch (IOException ignored) {
-                    serverSockets.put(server.getName(), null);
-                    logger.debug(String.format("%s fails to connect to %s - attempt %d", name, server, trial + 1));
+                    serverConnections.put(server.getName(), null);
+                    logger.debug("%s fails to connect to %s - attempt %d", name, server, trial + 1);
                 }
             }
 
@@ -55,174 +92,240 @@ public class ClientNode {
         }
 
         if (connectedServers.size() == 0) {
-            logger.debug(String.format("%s cannot connect to any other servers", name));
+            logger.debug("%s cannot connect to any other servers", name);
         }
         else if (connectedServers.size() < servers.size()) {
-            logger.debug(String.format("%s successfully connects to %s server(s): (%s)",
-                    name, connectedServers.size(), String.join(", ", connectedServers)));
+            logger.debug("%s successfully connects to %s server(s): (%s)",
+                    name, connectedServers.size(), String.join(", ", connectedServers));
         }
         else {
-            logger.debug(String.format("%s connect to all server(s)", name));
+            logger.debug("%s connect to all server(s)", name);
         }
     }
 
-    public void up() throws IOException, InterruptedException {
-        logger.log(String.format("%s starts", this.name));
+    public String getName() {
+        return name;
+    }
 
-        Random random = new Random();
+    /**
+     * Starts sending heartbeats and runs the workload described by the {@code load.*} options, then logs its summary.
+     */
+    public void up() throws InterruptedException {
+        logger.log("%s starts", this.name);
 
-        for (int i = 0; i < 20; i++) {
-            boolean needToWrite = random.nextBoolean();
-            int fileNumber = random.nextInt(20);
+        startHeartbeats();
 
-            if (IS_DEBUGGING) {
-                needToWrite = true;
-                fileNumber = random.nextInt(3);
-            }
+        if (IS_DEBUGGING) {
+            options.set("load.readPercent", "0");
+            options.set("load.files", "3");
+        }
 
-            Thread.sleep(random.nextInt(500));
+        LoadGenerator loadGenerator = new LoadGenerator(this, options, logger);
+        loadGenerator.run();
 
-            if (needToWrite) {
-                writeToServers(fileNumber, i);
-            }
-            else {
-                readFromServers(fileNumber);
-            }
+        for (String line : loadGenerator.getSummary()) {
+            logger.log("%s: %s", this.name, line);
         }
 
-        logger.log(String.format("%s gracefully exits", this.name));
+        logger.log("%s gracefully exits", this.name);
     }
 
-    private void writeToServers(int fileNumber, int messageCount) throws IOException {
-        List<Integer> serverNumbers = getServerNumbersForObject(fileNumber);
-        String fileName = String.format("File%d.txt", fileNumber);
-        List<Integer> reachableServerNumbers = new ArrayList<>();
-
-        for (int serverNumber : serverNumbers) {
-            if (isServerReachable(serverNumber)) {
-                reachableServerNumbers.add(serverNumber);
-            }
-        }
-
-        if (reachableServerNumbers.size() >= 2) {
-            for (int serverNumber : reachableServerNumbers) {
-                String serverName = (String) serverSockets.keySet().toArray()[serverNumber];
-                String message = String.format("%s|%s message #%d", fileName, this.name, messageCount);
-                requestServer(serverName, Message.MessageType.ClientWriteRequest, message);
+    /**
+     * Keeps the servers from suspecting this client, and this client from suspecting servers it has nothing to ask.
+     */
+    public void startHeartbeats() {
+        Thread heartbeatThread = new Thread(() -> {
+            try {
+                sendHeartbeats();
             }
-        }
-        else {
-            List<Integer> unreachableServerNumbers = serverNumbers
-                    .stream()
-                    .filter(i -> !reachableServerNumbers.contains(i))
-                    .collect(Collectors.toList());
-            List<String> unreachableServerNames = new ArrayList<>();
-
-            for (int unreachableServerNumber : unreachableServerNumbers) {
-                String serverName = (String) serverSockets.keySet().toArray()[unreachableServerNumber];
-                unreachableServerNames.add(serverName);
+            catch (InterruptedException e) {
+                e.printStackTrace();
             }
-
-            String errorMessage = String.format("%s: Cannot write to '%s' because of too many (%d) unreachable servers (%s)",
-                    name, fileName, unreachableServerNames.size(), String.join(", ", unreachableServerNames));
-            logger.log(errorMessage);
-        }
+        });
+        heartbeatThread.setDaemon(true);
+        heartbeatThread.start();
     }
 
-    private void readFromServers(int fileNumber) throws IOException {
-        boolean didRead = false;
-        List<String> unreachableServerNames = new ArrayList<>();
-        String fileName = String.format("File%d.txt", fileNumber);
-        List<Integer> serverNumbers = getServerNumbersForObject(fileNumber);
-        Collections.shuffle(serverNumbers);
+    private void sendHeartbeats() throws InterruptedException {
+        HashMap<String, CompletableFuture<Message>> heartbeats = new HashMap<>();
 
-        for(int serverNumber : serverNumbers) {
-            String serverName = (String) serverSockets.keySet().toArray()[serverNumber];
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            for (ServerConnection connection : serverConnections.values()) {
+                if (connection == null) {
+                    continue;
+                }
 
-            if (isServerReachable(serverNumber)) {
-                Message.MessageType responseType = requestServer(serverName, Message.MessageType.ClientReadRequest, fileName);
+                String serverName = connection.getServerName();
+                CompletableFuture<Message> lastHeartbeat = heartbeats.get(serverName);
 
-                if (responseType.equals(Message.MessageType.ReadFailureAck)) {
-                    logger.log(String.format("%s: %s cannot find file '%s'", name, serverName, fileName));
+                // any response refreshes the liveness table, so a server that has not answered yet gets no second one
+                if (lastHeartbeat != null && !lastHeartbeat.isDone()) {
+                    continue;
                 }
 
-                didRead = true;
-                break;
-            }
-            else {
-                logger.debug(String.format("%s: %s is unreachable to read file '%s'", name, serverName, fileName));
-                unreachableServerNames.add(serverName);
+                CompletableFuture<Message> heartbeat = connection.request(new Message(this.name, Message.MessageType.Heartbeat, clock.getTime(), ""));
+                heartbeat.whenComplete((response, e) -> {
+                    if (e != null) {
+                        logger.debug("%s fails to send heartbeat to %s", this.name, serverName);
+                    }
+                });
+                heartbeats.put(serverName, heartbeat);
             }
-        }
 
-        if(!didRead) {
-            logger.log(String.format("%s cannot reach any server (%s) to read file '%s'",
-                    name, String.join(", ", unreachableServerNames) , fileName));
+            Thread.sleep(failureDetector.getHeartbeatInterval());
         }
     }
 
-    private Message.MessageType requestServer(String serverName, Message.MessageType messageType, String messagePayload) throws IOException {
-        incrementLocalTime();
-
-        Socket socket = serverSockets.get(serverName);
-        Message message = new Message(this.name, messageType, localTime, messagePayload);
+    /**
+     * Sends the line to every reachable replica of the file at once. The future holds a Write Success Ack as soon as
+     * the replicas required by the {@code write.quorum} option acknowledged it, the others finish in the background.
+     * It holds a Write Failure Ack listing the failed replicas ("file|reasons") once that is no longer possible:
+     * too few replicas are reachable, or too many of them failed or did not answer within {@code write.timeout} ms.
+     */
+    public CompletableFuture<Message> writeToServersAsync(int fileNumber, String line) {
+        String fileName = String.format("File%d.txt", fileNumber);
+        List<String> replicaNames = placementRing.getReplicas(fileName);
+        List<String> reachableServerNames = new ArrayList<>();
+        List<String> unreachableServerNames = new ArrayList<>();
 
-        logger.log(String.format("%s sends '%s' to %s", this.name, message, serverName));
+        for (String serverName : replicaNames) {
+            if (isServerReachable(serverName)) {
+                reachableServerNames.add(serverName);
+            }
+            else {
+                unreachableServerNames.add(serverName);
+            }
+        }
 
-        sendMessage(socket, message.toString());
+        WriteQuorum quorum = options.getEnum("write.quorum", WriteQuorum.All);
+        int requiredAcks = quorum == WriteQuorum.All ? reachableServerNames.size() : quorum == WriteQuorum.Majority ? replicaNames.size() / 2 + 1 : 1;
 
-        DataInputStream dis = new DataInputStream(socket.getInputStream());
-        String responseMessageText = dis.readUTF();
-        Message responseMessage = new Message(responseMessageText);
+        // a write needs at least two replicas whatever the quorum (unless there is only one), so that it survives the loss of one
+        if (reachableServerNames.size() < Math.max(Math.min(2, replicaNames.size()), requiredAcks)) {
+            String errorMessage = String.format("too many (%d) unreachable servers (%s)", unreachableServerNames.size(), String.join(", ", unreachableServerNames));
+            return CompletableFuture.completedFuture(new Message(this.name, Message.MessageType.WriteFailureAck, clock.getTime(), String.format("%s|%s", fileName, errorMessage)));
+        }
 
-        logger.log(String.format("%s receives '%s' from %s", this.name, responseMessageText, serverName));
+        // every replica gets the same id, so that each server appends the write once however many copies reach it
+        long requestId = nextRequestId.getAndIncrement();
+        String message = String.format("%s|%d|%s", fileName, requestId, line);
+        long timeout = options.getLong("write.timeout", DEFAULT_WRITE_TIMEOUT);
+        CompletableFuture<Message> result = new CompletableFuture<>();
+        AtomicInteger ackCount = new AtomicInteger();
+        AtomicInteger failureCount = new AtomicInteger();
+        ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+
+        for (String serverName : reachableServerNames) {
+            CompletableFuture<Message> write = requestServerAsync(serverName, Message.MessageType.ClientWriteRequest, message, null, timeout);
+
+            write.whenComplete((responseMessage, e) -> {
+                if (e == null && responseMessage.getType() == Message.MessageType.WriteSuccessAck) {
+                    if (ackCount.incrementAndGet() == requiredAcks) {
+                        result.complete(responseMessage);
+                    }
+
+                    return;
+                }
 
-        setLocalTime(responseMessage.getTimeStamp());
-        incrementLocalTime();
+                String reason = e == null ? responseMessage.getType().toString() : String.valueOf((e instanceof CompletionException ? e.getCause() : e).getMessage());
+                failures.add(String.format("%s: %s", serverName, reason));
 
-        return responseMessage.getType();
-    }
+                if (result.isDone()) {
+                    logger.log("%s: %s fails to write to '%s' after the write completed (%s)", name, serverName, fileName, reason);
+                }
+                else if (reachableServerNames.size() - failureCount.incrementAndGet() < requiredAcks) {
+                    result.complete(new Message(this.name, Message.MessageType.WriteFailureAck, clock.getTime(), String.format("%s|%s", fileName, String.join(", ", failures))));
+                }
+            });
+        }
 
-    private void sendMessage(Socket socket, String message) throws IOException {
-        DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-        dos.writeUTF(message);
+        return result;
     }
 
-    private List<Integer> getServerNumbersForObject(int objectNumber) {
-        List<Integer> serverNumbers = new ArrayList<>();
-        int hashForObject = objectNumber % 7;
+    /**
+     * Reads the file from one reachable replica. The future holds the content (only the new lines for a tail read),
+     * or null after logging when the file does not exist or no replica is reachable.
+     */
+    public CompletableFuture<String> readFromServersAsync(int fileNumber) {
+        List<String> unreachableServerNames = new ArrayList<>();
+        String fileName = String.format("File%d.txt", fileNumber);
+        List<String> replicaNames = new ArrayList<>(placementRing.getReplicas(fileName));
+        Collections.shuffle(replicaNames);
+
+        for(String serverName : replicaNames) {
+            if (isServerReachable(serverName)) {
+                // replicas may hold the lines in a different order, so the offset is kept per server
+                String offsetKey = String.format("%s|%s", serverName, fileName);
+                boolean isTailRead = options.getBoolean("read.tail", false);
+                String payload = isTailRead ? String.format("%s|%d", fileName, readOffsets.getOrDefault(offsetKey, 0)) : fileName;
+                // a large read arrives as chunks followed by a ReadSuccessAck with the last one, each is shown as it comes
+                StringBuilder content = new StringBuilder();
+                CompletableFuture<Message> read = requestServerAsync(serverName, Message.MessageType.ClientReadRequest, payload, chunk -> {
+                    logger.log("%s receives '%s' from %s", this.name, chunk, serverName);
+                    content.append(chunk.getPayload());
+                }, 0);
+
+                return read.thenApply(responseMessage -> {
+                    if (responseMessage.getType().equals(Message.MessageType.ReadFailureAck)) {
+                        logger.log("%s: %s cannot find file '%s'", name, serverName, fileName);
+                        return null;
+                    }
+
+                    if (isTailRead) {
+                        // the payload of a tail read starts with the line count of the file, which is where the next one starts
+                        readOffsets.put(offsetKey, Integer.parseInt(responseMessage.getFileNameFromPayload()));
+                        return content.append(responseMessage.getDataFromPayload()).toString();
+                    }
+
+                    return content.append(responseMessage.getPayload()).toString();
+                });
+            }
+            else {
+                logger.debug("%s: %s is unreachable to read file '%s'", name, serverName, fileName);
+                unreachableServerNames.add(serverName);
+            }
+        }
 
-        serverNumbers.add(hashForObject);
-        serverNumbers.add((hashForObject + 1) % 7);
-        serverNumbers.add((hashForObject + 2) % 7);
+        logger.log("%s cannot reach any server (%s) to read file '%s'",
+                name, String.join(", ", unreachableServerNames) , fileName);
 
-        return serverNumbers;
+        return CompletableFuture.completedFuture(null);
     }
 
-    private boolean isServerReachable(int serverNumber) {
-        boolean isReachable = false;
+    /**
+     * Sends the request and returns the future of its final response, failed with a TimeoutException if the server
+     * does not answer within the timeout (in ms, 0 waits forever).
+     */
+    private CompletableFuture<Message> requestServerAsync(String serverName, Message.MessageType messageType, String messagePayload, Consumer<Message> chunkConsumer, long timeout) {
+        ServerConnection connection = serverConnections.get(serverName);
+        Message message = new Message(this.name, messageType, clock.tick(), messagePayload);
 
-        try {
-            String serverName = (String) serverSockets.keySet().toArray()[serverNumber];
-            Socket serverSocket = serverSockets.get(serverName);
+        logger.log("%s sends '%s' to %s", this.name, message, serverName);
 
-            if (serverSocket != null) {
-                isReachable = serverSocket.getInetAddress().isReachable(10000);
-            }
-        }
-        catch (Exception ignored) {
+        CompletableFuture<Message> request = connection.request(message, chunkConsumer);
+
+        if (timeout > 0) {
+            // the request itself times out, not a future derived from it, so that the connection frees its slot
+            ScheduledFuture<?> timer = timeoutScheduler.schedule(() -> request.completeExceptionally(
+                    new TimeoutException(String.format("no response within %d ms", timeout))), timeout, TimeUnit.MILLISECONDS);
+            request.whenComplete((responseMessage, e) -> timer.cancel(false));
         }
 
-        logger.debug(String.format("%s can reach server %d: %s", this.name, serverNumber, isReachable));
+        return request.thenApply(responseMessage -> {
+            logger.log("%s receives '%s' from %s", this.name, responseMessage, serverName);
 
-        return isReachable;
-    }
+            clock.receive(responseMessage.getTimeStamp());
 
-    private synchronized void incrementLocalTime() {
-        localTime += TIME_DIFFERENCE_BETWEEN_PROCESSES;
+            return responseMessage;
+        });
     }
 
-    private synchronized void setLocalTime(int messageTimeStamp) {
-        localTime = Math.max(localTime, messageTimeStamp + TIME_DIFFERENCE_BETWEEN_PROCESSES);
+    private boolean isServerReachable(String serverName) {
+        boolean isReachable = serverConnections.get(serverName) != null && failureDetector.isAlive(serverName);
+
+        logger.debug("%s can reach %s: %s", this.name, serverName, isReachable);
+
+        return isReachable;
     }
 }
@@ -0,0 +1,291 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a synthetic workload of reads and writes through a client and measures the latency of every operation.
+ * <p>
+ * In the closed loop ({@code load.mode=closed}), {@code load.concurrency} threads each issue an operation, wait for
+ * it and think for a random time of up to {@code load.thinkTime} ms before the next one, so the load follows the speed
+ * of the servers. In the open loop ({@code load.mode=open}), operations start at a fixed {@code load.rate} per second
+ * whether the previous ones are done or not. The latency of an open-loop operation counts from the time it was due,
+ * so an operation that had to wait for a free request slot reports that wait as well. Only successful operations go into
+ * the latency histograms and the throughput; failed ones, timeouts included, are counted apart, so that a few timed
+ * out writes do not pass for the tail latency of the cluster.
+ * <p>
+ * Each operation reads with probability {@code load.readPercent} % and otherwise writes, on one of {@code load.files}
+ * files picked uniformly or, with {@code load.distribution=zipfian}, with a Zipf distribution favouring the lowest
+ * file numbers. The run stops after {@code load.operations} operations or {@code load.duration} seconds, whichever
+ * comes first (0 means no limit), and waits for the outstanding ones. With {@code load.seed}, every run picks the same
+ * sequence of operations and files for each thread. The closed-loop threads are virtual threads with
+ * {@code threads=virtual}, so a high concurrency costs no more than the requests it keeps in flight.
+ */
+public class LoadGenerator {
+    public enum Mode {Closed, Open}
+
+    public enum Distribution {Uniform, Zipfian}
+
+    public static final int DEFAULT_OPERATION_COUNT = 20;
+    public static final int DEFAULT_FILE_COUNT = 20;
+    public static final int DEFAULT_THINK_TIME = 500;
+
+    private static final double NANOSECONDS_PER_MILLISECOND = 1e6;
+
+    private ClientNode clientNode;
+    private Logger logger;
+    private Mode mode;
+    private int concurrency;
+    private ThreadMode threadMode;
+    private double rate;
+    private int readPercent;
+    private int fileCount;
+    private ZipfDistribution zipfDistribution;
+    private int thinkTime;
+    private Long seed;
+    private long operationCount;
+    private long deadline;
+    private AtomicLong nextOperation;
+    private LatencyHistogram readLatencies;
+    private LatencyHistogram writeLatencies;
+    private LongAdder readFailureCount;
+    private LongAdder writeFailureCount;
+    private long elapsedTime;
+
+    /**
+     * Reads the {@code load.*} options.
+     */
+    public LoadGenerator(ClientNode clientNode, Options options, Logger logger) {
+        this.clientNode = clientNode;
+        this.logger = logger;
+        this.mode = options.getEnum("load.mode", Mode.Closed);
+        this.concurrency = options.getInt("load.concurrency", 1);
+        this.threadMode = options.getEnum("threads", ThreadMode.Platform);
+        this.rate = options.getDouble("load.rate", 10);
+        this.readPercent = options.getInt("load.readPercent", 50);
+        this.fileCount = options.getInt("load.files", DEFAULT_FILE_COUNT);
+        this.thinkTime = options.getInt("load.thinkTime", DEFAULT_THINK_TIME);
+        this.operationCount = options.getLong("load.operations", DEFAULT_OPERATION_COUNT);
+        this.seed = options.get("load.seed", null) == null ? null : options.getLong("load.seed", 0);
+        this.deadline = TimeUnit.SECONDS.toNanos(options.getLong("load.duration", 0));
+        this.nextOperation = new AtomicLong();
+        this.readLatencies = new LatencyHistogram();
+        this.writeLatencies = new LatencyHistogram();
+        this.readFailureCount = new LongAdder();
+        this.writeFailureCount = new LongAdder();
+
+        if (options.getEnum("load.distribution", Distribution.Uniform) == Distribution.Zipfian) {
+            this.zipfDistribution = new ZipfDistribution(fileCount, options.getDouble("load.zipf.exponent", ZipfDistribution.DEFAULT_EXPONENT));
+        }
+    }
+
+    public void run() throws InterruptedException {
+        long startTime = System.nanoTime();
+
+        // the duration is turned into an absolute deadline, 0 stays "no deadline"
+        if (deadline > 0) {
+            deadline += startTime;
+        }
+
+        if (mode == Mode.Open) {
+            runOpenLoop(startTime);
+        }
+        else {
+            runClosedLoop();
+        }
+
+        elapsedTime = System.nanoTime() - startTime;
+    }
+
+    public LatencyHistogram getReadLatencies() {
+        return readLatencies;
+    }
+
+    public LatencyHistogram getWriteLatencies() {
+        return writeLatencies;
+    }
+
+    public long getReadFailureCount() {
+        return readFailureCount.sum();
+    }
+
+    public long getWriteFailureCount() {
+        return writeFailureCount.sum();
+    }
+
+    /**
+     * Nanoseconds the last run took, from the first operation until the last one completed.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Lines describing the last run: successful and failed operation counts and the throughput of the successful ones,
+     * then their latency percentiles.
+     */
+    public List<String> getSummary() {
+        return getSummary(readLatencies, writeLatencies, getReadFailureCount(), getWriteFailureCount(), elapsedTime);
+    }
+
+    /**
+     * Lines describing a run, or several runs at once with their histograms added up.
+     */
+    public static List<String> getSummary(LatencyHistogram readLatencies, LatencyHistogram writeLatencies, long readFailureCount, long writeFailureCount, long elapsedTime) {
+        List<String> summary = new ArrayList<>();
+        long completedCount = readLatencies.getCount() + writeLatencies.getCount();
+        double seconds = elapsedTime / (NANOSECONDS_PER_MILLISECOND * 1000);
+
+        summary.add(String.format("%d operations in %.1f s (%.1f ops/s): %d reads, %d writes; failed: %d reads, %d writes",
+                completedCount, seconds, seconds == 0 ? 0 : completedCount / seconds,
+                readLatencies.getCount(), writeLatencies.getCount(), readFailureCount, writeFailureCount));
+        addLatencies(summary, "read", readLatencies);
+        addLatencies(summary, "write", writeLatencies);
+
+        return summary;
+    }
+
+    private static void addLatencies(List<String> summary, String operationName, LatencyHistogram latencies) {
+        if (latencies.getCount() == 0) {
+            return;
+        }
+
+        summary.add(String.format("%s latency (ms): mean %.2f, p50 %.2f, p99 %.2f, p99.9 %.2f, max %.2f", operationName,
+                latencies.getMean() / NANOSECONDS_PER_MILLISECOND,
+                latencies.getValueAtPercentile(50) / NANOSECONDS_PER_MILLISECOND,
+                latencies.getValueAtPercentile(99) / NANOSECONDS_PER_MILLISECOND,
+                latencies.getValueAtPercentile(99.9) / NANOSECONDS_PER_MILLISECOND,
+                latencies.getMax() / NANOSECONDS_PER_MILLISECOND));
+    }
+
+    private void runClosedLoop() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < concurrency; i++) {
+            int threadNumber = i;
+            Thread thread = threadMode.newThread(String.format("load-%d", i), () -> {
+                Random random = createRandom(threadNumber);
+                long operation;
+
+                while ((operation = claimOperation()) >= 0) {
+                    if (thinkTime > 0) {
+                        try {
+                            Thread.sleep(random.nextInt(thinkTime));
+                        }
+                        catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+
+                    // the think time is left out of the latency, only the operation itself is measured
+                    issue(operation, random, System.nanoTime()).join();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private void runOpenLoop(long startTime) throws InterruptedException {
+        Random random = createRandom(0);
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        // the loop itself counts as outstanding until it is done, so the count only reaches 0 once everything completed
+        AtomicLong outstandingCount = new AtomicLong(1);
+        CountDownLatch completed = new CountDownLatch(1);
+        long operation;
+
+        while ((operation = claimOperation()) >= 0) {
+            long dueTime = startTime + operation * interval;
+            long delay;
+
+            while ((delay = dueTime - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+            }
+
+            // the deadline may have passed while waiting for the due time
+            if (deadline > 0 && dueTime - deadline >= 0) {
+                break;
+            }
+
+            outstandingCount.incrementAndGet();
+
+            issue(operation, random, dueTime).whenComplete((ignored, e) -> {
+                if (outstandingCount.decrementAndGet() == 0) {
+                    completed.countDown();
+                }
+            });
+        }
+
+        if (outstandingCount.decrementAndGet() == 0) {
+            completed.countDown();
+        }
+
+        completed.await();
+    }
+
+    private Random createRandom(int threadNumber) {
+        // called on the thread using it, ThreadLocalRandom only seeds the current thread
+        return seed == null ? ThreadLocalRandom.current() : new Random(seed * 31 + threadNumber);
+    }
+
+    /**
+     * Returns the number of the next operation, or -1 once the operation count or the deadline is reached.
+     */
+    private long claimOperation() {
+        if (deadline > 0 && System.nanoTime() - deadline >= 0) {
+            return -1;
+        }
+
+        long operation = nextOperation.getAndIncrement();
+
+        return operationCount > 0 && operation >= operationCount ? -1 : operation;
+    }
+
+    /**
+     * Starts the operation and returns a future that completes (never exceptionally) once its latency, counted from
+     * the start time, is recorded, or its failure counted.
+     */
+    private CompletableFuture<Void> issue(long operation, Random random, long startTime) {
+        int fileNumber = zipfDistribution == null ? random.nextInt(fileCount) : zipfDistribution.next(random);
+
+        if (random.nextInt(100) < readPercent) {
+            return clientNode.readFromServersAsync(fileNumber).handle((content, e) -> {
+                if (e != null) {
+                    readFailureCount.increment();
+                    logger.log("%s: Cannot read file %d (%s)", clientNode.getName(), fileNumber, e);
+                }
+                else {
+                    readLatencies.record(System.nanoTime() - startTime);
+                }
+
+                return null;
+            });
+        }
+
+        String line = String.format("%s message #%d", clientNode.getName(), operation);
+
+        return clientNode.writeToServersAsync(fileNumber, line).handle((responseMessage, e) -> {
+            if (e != null || responseMessage.getType() == Message.MessageType.WriteFailureAck) {
+                writeFailureCount.increment();
+                logger.log("%s: Cannot write to file %d (%s)", clientNode.getName(), fileNumber,
+                        e != null ? e : responseMessage.getDataFromPayload());
+            }
+            else {
+                writeLatencies.record(System.nanoTime() - startTime);
+            }
+
+            return null;
+        });
+    }
+}
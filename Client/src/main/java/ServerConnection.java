@@ -0,0 +1,154 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Connection of a client to one server that carries many requests at once. Every request gets a correlation id that
+ * the server copies into its responses, and a reader thread per connection completes the matching future, in whatever
+ * order the responses arrive. At most maxInFlight requests are outstanding; further callers wait for a free slot.
+ * A caller giving up on a request, e.g. after a timeout, completes or cancels its future, which frees the slot; a
+ * response arriving later is dropped.
+ * <p>
+ * Futures are completed on the reader thread, so code chained to them must not block.
+ */
+public class ServerConnection implements Closeable {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    private String serverName;
+    private MessageStream stream;
+    private FailureDetector failureDetector;
+    private Semaphore inFlightSlots;
+    private AtomicLong nextCorrelationId;
+    private ConcurrentHashMap<Long, PendingRequest> pendingRequests;
+    private volatile IOException failure;
+
+    public ServerConnection(String serverName, MessageStream stream, int maxInFlight, FailureDetector failureDetector) {
+        this(serverName, stream, maxInFlight, failureDetector, ThreadMode.Platform);
+    }
+
+    /**
+     * Starts the reader on a thread of the given kind.
+     */
+    public ServerConnection(String serverName, MessageStream stream, int maxInFlight, FailureDetector failureDetector, ThreadMode threadMode) {
+        this.serverName = serverName;
+        this.stream = stream;
+        this.failureDetector = failureDetector;
+        this.inFlightSlots = new Semaphore(maxInFlight);
+        this.nextCorrelationId = new AtomicLong(1);
+        this.pendingRequests = new ConcurrentHashMap<>();
+
+        Thread reader = threadMode.newThread(String.format("%s-reader", serverName), this::readResponses);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public String getServerName() {
+        return serverName;
+    }
+
+    public int getInFlightCount() {
+        return pendingRequests.size();
+    }
+
+    public CompletableFuture<Message> request(Message message) {
+        return request(message, null);
+    }
+
+    /**
+     * Sends the message under a new correlation id and returns the future of its final response. The Read Chunk Acks
+     * that come before the final response of a large read are handed to the chunk consumer (if any) as they arrive.
+     */
+    public CompletableFuture<Message> request(Message message, Consumer<Message> chunkConsumer) {
+        inFlightSlots.acquireUninterruptibly();
+
+        long correlationId = nextCorrelationId.getAndIncrement();
+        PendingRequest pendingRequest = new PendingRequest(chunkConsumer);
+        pendingRequests.put(correlationId, pendingRequest);
+
+        // the reader and fail() remove the request before completing it, so this only frees requests given up on
+        pendingRequest.future.whenComplete((response, e) -> {
+            if (pendingRequests.remove(correlationId, pendingRequest)) {
+                inFlightSlots.release();
+            }
+        });
+
+        // the reader fails whatever is pending when the connection breaks, a request added after that fails here
+        if (failure != null) {
+            fail(correlationId, failure);
+            return pendingRequest.future;
+        }
+
+        try {
+            stream.write(new Message(message.getSenderName(), message.getType(), message.getTimeStamp(), message.getPayload(), correlationId));
+        }
+        catch (IOException e) {
+            failureDetector.suspect(serverName);
+            fail(correlationId, e);
+        }
+
+        return pendingRequest.future;
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+
+    private void readResponses() {
+        try {
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                Message response = stream.read();
+                failureDetector.heartbeat(serverName);
+
+                if (response.getType() == Message.MessageType.ReadChunkAck) {
+                    PendingRequest pendingRequest = pendingRequests.get(response.getCorrelationId());
+
+                    if (pendingRequest != null && pendingRequest.chunkConsumer != null) {
+                        pendingRequest.chunkConsumer.accept(response);
+                    }
+                }
+                else {
+                    PendingRequest pendingRequest = pendingRequests.remove(response.getCorrelationId());
+
+                    // the slot is free before code chained to the future runs, which may send the next request
+                    if (pendingRequest != null) {
+                        inFlightSlots.release();
+                        pendingRequest.future.complete(response);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            failure = e;
+            failureDetector.suspect(serverName);
+
+            for (Long correlationId : pendingRequests.keySet()) {
+                fail(correlationId, e);
+            }
+        }
+    }
+
+    private void fail(long correlationId, IOException e) {
+        // the reader and the sender may both try, only one of them owns the slot
+        PendingRequest pendingRequest = pendingRequests.remove(correlationId);
+
+        if (pendingRequest != null) {
+            inFlightSlots.release();
+            pendingRequest.future.completeExceptionally(e);
+        }
+    }
+
+    private static class PendingRequest {
+        private CompletableFuture<Message> future = new CompletableFuture<>();
+        private Consumer<Message> chunkConsumer;
+
+        PendingRequest(Consumer<Message> chunkConsumer) {
+            this.chunkConsumer = chunkConsumer;
+        }
+    }
+}
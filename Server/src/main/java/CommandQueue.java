@@ -0,0 +1,178 @@
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lamport request queue of a single file. Every file gets its own queue so that writes to different files
+ * enter their critical sections independently. The queue is guarded by its own lock: every change signals the writers
+ * waiting on it, and callers that need a consistent view across several calls hold {@link #getLock()}. It is a lock
+ * rather than a monitor so that waiting writers on virtual threads do not pin their carrier threads.
+ * A separate send lock orders the outgoing requests and acknowledgements of the file: taking the timestamp and
+ * sending the message under that lock guarantees that peers receive them in timestamp order, which is what lets
+ * a peer treat any later acknowledgement as proof that no earlier request of this server is still in flight.
+ * <p>
+ * Requests are kept in (timestamp, sender) order and indexed by sender and timestamp, as a release names them, so the
+ * oldest request is found and a release applied in O(log n), however many requests are pending. Acknowledgements are
+ * not queued: all the algorithm needs from them is that the peer has sent something later than a request, so the queue
+ * only keeps the highest timestamp of the requests and acknowledgements received from each peer.
+ */
+public class CommandQueue {
+    private String fileName;
+    private TreeSet<Message> requests;
+    private HashMap<String, HashMap<Long, Message>> requestsBySender;
+    private HashMap<String, Long> latestTimeStamps;
+    private ReentrantLock lock;
+    private Condition changed;
+    private ReentrantLock sendLock;
+
+    public CommandQueue(String fileName) {
+        this.fileName = fileName;
+        // a sender never gives two requests the same timestamp, so (timestamp, sender) tells all of them apart
+        this.requests = new TreeSet<>();
+        this.requestsBySender = new HashMap<>();
+        this.latestTimeStamps = new HashMap<>();
+        this.lock = new ReentrantLock();
+        this.changed = lock.newCondition();
+        this.sendLock = new ReentrantLock();
+    }
+
+    public ReentrantLock getLock() {
+        return lock;
+    }
+
+    public ReentrantLock getSendLock() {
+        return sendLock;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return requests.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return requests.isEmpty();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the oldest request, or null if there is none.
+     */
+    public Message peek() {
+        lock.lock();
+        try {
+            return requests.isEmpty() ? null : requests.first();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a Write Acquire Request.
+     */
+    public void add(Message request) {
+        lock.lock();
+        try {
+            requests.add(request);
+            requestsBySender.computeIfAbsent(request.getSenderName(), senderName -> new HashMap<>()).put(request.getTimeStamp(), request);
+            recordTimeStamp(request);
+
+            // wake up writers waiting for this file since the queue head or the timestamps of the peers may have changed
+            changed.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes note of a Write Acquire Response, which only counts for its timestamp.
+     */
+    public void acknowledge(Message response) {
+        lock.lock();
+        try {
+            if (recordTimeStamp(response)) {
+                changed.signalAll();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tells whether a request or acknowledgement with a timestamp later than the given one came from the sender. Both
+     * are sent in timestamp order, so the sender has no earlier request still in flight.
+     */
+    public boolean hasReceivedLaterThan(String senderName, long timeStamp) {
+        lock.lock();
+        try {
+            Long latestTimeStamp = latestTimeStamps.get(senderName);
+
+            return latestTimeStamp != null && latestTimeStamp > timeStamp;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the request the sender made at the timestamp and returns it, or null if it is not in the queue.
+     */
+    public Message removeRequest(String senderName, long timeStamp) {
+        lock.lock();
+        try {
+            HashMap<Long, Message> senderRequests = requestsBySender.get(senderName);
+            Message request = senderRequests == null ? null : senderRequests.remove(timeStamp);
+
+            if (request == null) {
+                return null;
+            }
+
+            if (senderRequests.isEmpty()) {
+                requestsBySender.remove(senderName);
+            }
+
+            requests.remove(request);
+            changed.signalAll();
+
+            return request;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the queue changes. Callers must hold the lock of this queue.
+     */
+    public void awaitChange() throws InterruptedException {
+        changed.await();
+    }
+
+    private boolean recordTimeStamp(Message message) {
+        Long latestTimeStamp = latestTimeStamps.get(message.getSenderName());
+
+        if (latestTimeStamp != null && latestTimeStamp >= message.getTimeStamp()) {
+            return false;
+        }
+
+        latestTimeStamps.put(message.getSenderName(), message.getTimeStamp());
+        return true;
+    }
+}
@@ -0,0 +1,37 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Voting sets laid out on a grid: the servers, sorted by name, fill the rows of a grid that is ceil(sqrt(N)) columns
+ * wide, and the voting set of a server is its own row and its own column. The cell at the row of one server and the
+ * column of another always exists (the last row may be short, but then the other cell does), so any two voting sets
+ * share a server. A voting set holds fewer than 2 * sqrt(N) servers, the server itself included.
+ */
+public class GridQuorum {
+    private GridQuorum() {
+    }
+
+    public static List<String> of(Collection<String> serverNames, String serverName) {
+        List<String> sortedNames = new ArrayList<>(new TreeSet<>(serverNames));
+        int index = sortedNames.indexOf(serverName);
+
+        if (index < 0) {
+            throw new IllegalArgumentException(String.format("%s is not one of the servers (%s)", serverName, String.join(", ", sortedNames)));
+        }
+
+        int columns = (int) Math.ceil(Math.sqrt(sortedNames.size()));
+        int row = index / columns;
+        int column = index % columns;
+        List<String> quorum = new ArrayList<>();
+
+        for (int i = 0; i < sortedNames.size(); i++) {
+            if (i / columns == row || i % columns == column) {
+                quorum.add(sortedNames.get(i));
+            }
+        }
+
+        return quorum;
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.IOException;
+
+/**
+ * Lamport's algorithm: every request sits in the queue of its file, and a server enters the critical section once its
+ * request is the oldest one and every peer has sent a request or acknowledgement newer than it.
+ * A write costs a request, a response, a sync and a release per peer.
+ */
+public class LamportMutualExclusion implements MutualExclusion {
+    private ServerNode serverNode;
+    private Logger logger;
+    private String name;
+
+    public LamportMutualExclusion(ServerNode serverNode, Logger logger) {
+        this.serverNode = serverNode;
+        this.logger = logger;
+        this.name = serverNode.getName();
+    }
+
+    @Override
+    public Message enter(String payload) throws IOException, InterruptedException {
+        CommandQueue commandsQueue = serverNode.getCommandsQueue(payload.substring(0, Math.max(0, payload.indexOf('|'))));
+        Message writeAcquireRequest;
+
+        commandsQueue.getSendLock().lock();
+        try {
+            writeAcquireRequest = new Message(name, Message.MessageType.WriteAcquireRequest, serverNode.incrementLocalTime(), payload);
+            addToQueue(writeAcquireRequest);
+            serverNode.notifyPeers(commandsQueue.getFileName(), writeAcquireRequest);
+        }
+        finally {
+            commandsQueue.getSendLock().unlock();
+        }
+
+        logger.debug("%s check allowance to proceed to critical section for message '%s'...", name, writeAcquireRequest);
+
+        awaitCriticalSession(writeAcquireRequest);
+
+        return writeAcquireRequest;
+    }
+
+    @Override
+    public void exit(Message writeAcquireRequest) throws IOException, InterruptedException {
+        String fileName = writeAcquireRequest.getFileNameFromPayload();
+
+        Message writeSyncRequest = new Message(name, Message.MessageType.WriteSyncRequest, serverNode.incrementLocalTime(), writeAcquireRequest.getPayload());
+        serverNode.notifyPeers(fileName, writeSyncRequest);
+
+        CommandQueue commandsQueue = serverNode.getCommandsQueue(fileName);
+        logRemoval(commandsQueue, commandsQueue.removeRequest(name, writeAcquireRequest.getTimeStamp()));
+
+        // the release names the file and the released request so that peers only unblock the writers of that file
+        String releasePayload = String.format("%s|%d", fileName, writeAcquireRequest.getTimeStamp());
+        Message writeReleaseRequest = new Message(name, Message.MessageType.WriteReleaseRequest, serverNode.incrementLocalTime(), releasePayload);
+        serverNode.notifyPeers(fileName, writeReleaseRequest);
+        serverNode.incrementLocalTime();
+    }
+
+    @Override
+    public void onMessage(Message receivedMessage) throws IOException, InterruptedException {
+        if (receivedMessage.getType() == Message.MessageType.WriteAcquireRequest) {
+            CommandQueue commandsQueue = serverNode.getCommandsQueue(receivedMessage.getFileNameFromPayload());
+            addToQueue(receivedMessage);
+
+            serverNode.awaitServerAlive(receivedMessage.getSenderName());
+
+            commandsQueue.getSendLock().lock();
+            try {
+                Message responseMessage = new Message(name, Message.MessageType.WriteAcquireResponse, serverNode.incrementLocalTime(), receivedMessage.getPayload());
+                serverNode.sendToServer(receivedMessage.getSenderName(), responseMessage);
+            }
+            finally {
+                commandsQueue.getSendLock().unlock();
+            }
+        }
+        else if (receivedMessage.getType() == Message.MessageType.WriteAcquireResponse) {
+            // an acknowledgement only raises the timestamp known from the peer, late ones included
+            serverNode.getCommandsQueue(receivedMessage.getFileNameFromPayload()).acknowledge(receivedMessage);
+        }
+        else if (receivedMessage.getType() == Message.MessageType.WriteReleaseRequest) {
+            // only remove the WriteAcquireRequest counterpart, identified by its timestamp
+            long requestTimeStamp = Long.parseLong(receivedMessage.getDataFromPayload());
+            CommandQueue commandsQueue = serverNode.getCommandsQueue(receivedMessage.getFileNameFromPayload());
+            logRemoval(commandsQueue, commandsQueue.removeRequest(receivedMessage.getSenderName(), requestTimeStamp));
+        }
+    }
+
+    private void addToQueue(Message message) {
+        CommandQueue commandsQueue = serverNode.getCommandsQueue(message.getFileNameFromPayload());
+
+        logger.debug("%s adds message '%s' to the queue of '%s'", name, message, commandsQueue.getFileName());
+        logger.debug("%s queue size before add = %d", name, commandsQueue.size());
+
+        commandsQueue.add(message);
+
+        logger.debug("%s queue size after add = %d", name, commandsQueue.size());
+    }
+
+    private void logRemoval(CommandQueue commandsQueue, Message removedMessage) {
+        if (removedMessage != null) {
+            logger.debug("%s removes '%s' off the queue of '%s', size after remove = %d", name, removedMessage, commandsQueue.getFileName(), commandsQueue.size());
+        }
+    }
+
+    private boolean isMessageFirstInQueue(CommandQueue commandsQueue, Message message) {
+        Message top = commandsQueue.peek();
+
+        if (top == null) {
+            return true;
+        }
+
+        logger.debug("%s queue top = '%s'", name, top);
+        logger.debug("%s current message = '%s'", name, message);
+
+        return top.getSenderName().equals(message.getSenderName()) &&
+                top.getTimeStamp() == message.getTimeStamp();
+    }
+
+    private boolean isAllConfirmToAllowEnterCriticalSession(CommandQueue commandsQueue, Message writeAcquireRequest) {
+        for (String peerName : serverNode.getPeerNames(commandsQueue.getFileName())) {
+            if (!commandsQueue.hasReceivedLaterThan(peerName, writeAcquireRequest.getTimeStamp())) {
+                logger.debug("%s has nothing from %s later than request '%s'", name, peerName, writeAcquireRequest);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void awaitCriticalSession(Message writeAcquireRequest) throws InterruptedException {
+        CommandQueue commandsQueue = serverNode.getCommandsQueue(writeAcquireRequest.getFileNameFromPayload());
+
+        // every change to the queue of this file happens under its lock and signals it, so re-check only when woken up
+        commandsQueue.getLock().lock();
+        try {
+            while (!isMessageFirstInQueue(commandsQueue, writeAcquireRequest) || !isAllConfirmToAllowEnterCriticalSession(commandsQueue, writeAcquireRequest)) {
+                logger.debug("%s waits for critical section access to '%s'...", name, commandsQueue.getFileName());
+                commandsQueue.awaitChange();
+            }
+        }
+        finally {
+            commandsQueue.getLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Maekawa's algorithm: a server only asks the servers of its {@link GridQuorum} voting set, itself included, and each
+ * of them votes for one request of a file at a time. Since any two voting sets share a server, two requests never hold
+ * all their votes at once. A write costs a request, a response and a release carrying the written lines per member of
+ * the voting set, plus a sync to every other peer, so the number of servers whose answer a write waits for grows with
+ * sqrt(N) instead of N.
+ * <p>
+ * Votes handed out in the wrong order could deadlock, so a voter that gets an older request than the one it voted for
+ * sends a WriteInquireRequest to the holder of its vote, and a WriteFailedResponse to requests that have to wait
+ * behind an older one. A requester that cannot enter yet because some voter failed it gives the inquired vote back
+ * with a WriteYieldResponse, and the voter passes it on to the oldest waiting request.
+ */
+public class MaekawaMutualExclusion implements MutualExclusion {
+    private ServerNode serverNode;
+    private Logger logger;
+    private String name;
+    private ConcurrentHashMap<String, Lane> lanes;
+
+    public MaekawaMutualExclusion(ServerNode serverNode, Logger logger) {
+        this.serverNode = serverNode;
+        this.logger = logger;
+        this.name = serverNode.getName();
+        this.lanes = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public Message enter(String payload) throws IOException, InterruptedException {
+        String fileName = payload.substring(0, Math.max(0, payload.indexOf('|')));
+        Lane lane = getLane(fileName);
+
+        // a voter tracks one request per server and file, so local writers of the same file queue up here first
+        lane.localLock.lockInterruptibly();
+
+        Message writeAcquireRequest;
+
+        lane.lock.lock();
+        try {
+            writeAcquireRequest = new Message(name, Message.MessageType.WriteAcquireRequest, serverNode.incrementLocalTime(), payload);
+            lane.ownRequest = writeAcquireRequest;
+            lane.grantedServers.clear();
+            lane.inquiringServers.clear();
+            lane.failed = false;
+            lane.yielded = false;
+            lane.inCriticalSection = false;
+        }
+        finally {
+            lane.lock.unlock();
+        }
+
+        // voters only need the file name to compete, the data travels once the critical section is over
+        for (String serverName : lane.quorum) {
+            send(serverName, new Message(name, Message.MessageType.WriteAcquireRequest, writeAcquireRequest.getTimeStamp(), fileName));
+        }
+
+        logger.debug("%s check allowance to proceed to critical section for message '%s'...", name, writeAcquireRequest);
+
+        lane.lock.lock();
+        try {
+            while (!lane.inCriticalSection) {
+                logger.debug("%s waits for critical section access to '%s'...", name, fileName);
+                lane.changed.await();
+            }
+        }
+        finally {
+            lane.lock.unlock();
+        }
+
+        return writeAcquireRequest;
+    }
+
+    @Override
+    public void exit(Message writeAcquireRequest) throws IOException, InterruptedException {
+        String fileName = writeAcquireRequest.getFileNameFromPayload();
+        Lane lane = getLane(fileName);
+
+        // the release carries the lines written in the critical section, so only peers outside the voting set need a sync;
+        // syncs go first so that the data is on its way to them before the next writer is let in
+        for (String serverName : serverNode.getPeerNames(fileName)) {
+            if (!lane.quorum.contains(serverName)) {
+                send(serverName, new Message(name, Message.MessageType.WriteSyncRequest, serverNode.incrementLocalTime(), writeAcquireRequest.getPayload()));
+            }
+        }
+
+        lane.lock.lock();
+        try {
+            lane.ownRequest = null;
+            lane.grantedServers.clear();
+            lane.inquiringServers.clear();
+            lane.inCriticalSection = false;
+        }
+        finally {
+            lane.lock.unlock();
+        }
+
+        String releasePayload = String.format("%s|%s", referTo(writeAcquireRequest), writeAcquireRequest.getDataFromPayload());
+
+        for (String serverName : lane.quorum) {
+            if (!serverName.equals(name)) {
+                send(serverName, new Message(name, Message.MessageType.WriteReleaseRequest, serverNode.incrementLocalTime(), releasePayload));
+            }
+        }
+
+        // the own vote is released last, the lines are already appended here
+        send(name, new Message(name, Message.MessageType.WriteReleaseRequest, serverNode.incrementLocalTime(), referTo(writeAcquireRequest)));
+
+        lane.localLock.unlock();
+    }
+
+    @Override
+    public void onMessage(Message receivedMessage) throws IOException, InterruptedException {
+        Lane lane = getLane(receivedMessage.getFileNameFromPayload());
+
+        lane.lock.lock();
+        try {
+            switch (receivedMessage.getType()) {
+                case WriteAcquireRequest:
+                    vote(lane, receivedMessage);
+                    break;
+                case WriteReleaseRequest:
+                case WriteYieldResponse:
+                    takeBackVote(lane, receivedMessage);
+                    break;
+                case WriteAcquireResponse:
+                    acceptVote(lane, receivedMessage);
+                    break;
+                case WriteInquireRequest:
+                    answerInquiry(lane, receivedMessage);
+                    break;
+                case WriteFailedResponse:
+                    acceptFailure(lane, receivedMessage);
+                    break;
+                default:
+                    break;
+            }
+        }
+        finally {
+            lane.lock.unlock();
+        }
+    }
+
+    private void vote(Lane lane, Message writeAcquireRequest) throws IOException, InterruptedException {
+        String fileName = writeAcquireRequest.getFileNameFromPayload();
+
+        if (lane.votedRequest == null) {
+            lane.votedRequest = writeAcquireRequest;
+            lane.inquired = false;
+            send(writeAcquireRequest.getSenderName(), new Message(name, Message.MessageType.WriteAcquireResponse, serverNode.incrementLocalTime(), referTo(writeAcquireRequest)));
+            return;
+        }
+
+        Message previousHead = lane.waitingRequests.peek();
+        lane.waitingRequests.add(writeAcquireRequest);
+
+        if (writeAcquireRequest.compareTo(lane.votedRequest) < 0 && (previousHead == null || writeAcquireRequest.compareTo(previousHead) < 0)) {
+            // the vote went to a younger request, ask its holder to give it back unless it is already asked
+            if (!lane.inquired) {
+                lane.inquired = true;
+                send(lane.votedRequest.getSenderName(), new Message(name, Message.MessageType.WriteInquireRequest, serverNode.incrementLocalTime(), referTo(lane.votedRequest)));
+            }
+
+            // the former head of the waiting requests was never failed, since it used to be next in line
+            if (previousHead != null && previousHead.compareTo(lane.votedRequest) < 0) {
+                send(previousHead.getSenderName(), new Message(name, Message.MessageType.WriteFailedResponse, serverNode.incrementLocalTime(), referTo(previousHead)));
+            }
+        }
+        else {
+            logger.debug("%s fails '%s' from %s on '%s'", name, writeAcquireRequest, writeAcquireRequest.getSenderName(), fileName);
+            send(writeAcquireRequest.getSenderName(), new Message(name, Message.MessageType.WriteFailedResponse, serverNode.incrementLocalTime(), referTo(writeAcquireRequest)));
+        }
+    }
+
+    private void takeBackVote(Lane lane, Message receivedMessage) throws IOException, InterruptedException {
+        if (!isAbout(lane.votedRequest, receivedMessage.getSenderName(), receivedMessage)) {
+            return;
+        }
+
+        // a yielded request keeps waiting for the vote, a released one is done and its lines are appended before the
+        // vote moves on, so the members of a voting set append the writes of a file in the order of the critical sections
+        if (receivedMessage.getType() == Message.MessageType.WriteYieldResponse) {
+            lane.waitingRequests.add(lane.votedRequest);
+        }
+        else if (!receivedMessage.getSenderName().equals(name)) {
+            String data = receivedMessage.getDataFromPayload();
+            serverNode.appendToFile(receivedMessage.getFileNameFromPayload(), data.substring(data.indexOf('|') + 1));
+        }
+
+        lane.votedRequest = lane.waitingRequests.poll();
+        lane.inquired = false;
+
+        if (lane.votedRequest != null) {
+            send(lane.votedRequest.getSenderName(), new Message(name, Message.MessageType.WriteAcquireResponse, serverNode.incrementLocalTime(), referTo(lane.votedRequest)));
+        }
+    }
+
+    private void acceptVote(Lane lane, Message writeAcquireResponse) {
+        if (!isAbout(lane.ownRequest, name, writeAcquireResponse)) {
+            return;
+        }
+
+        lane.grantedServers.add(writeAcquireResponse.getSenderName());
+
+        // once every vote is in, inquiries are left unanswered and the release gives the votes back
+        if (lane.grantedServers.containsAll(lane.quorum)) {
+            lane.inCriticalSection = true;
+            lane.changed.signalAll();
+        }
+    }
+
+    private void answerInquiry(Lane lane, Message writeInquireRequest) throws IOException, InterruptedException {
+        String voterName = writeInquireRequest.getSenderName();
+
+        if (!isAbout(lane.ownRequest, name, writeInquireRequest) || lane.inCriticalSection || !lane.grantedServers.contains(voterName)) {
+            return;
+        }
+
+        // until some voter fails the request it may still get every vote, so the answer waits for a failure
+        if (lane.failed || lane.yielded) {
+            yieldVote(lane, voterName);
+        }
+        else {
+            lane.inquiringServers.add(voterName);
+        }
+    }
+
+    private void acceptFailure(Lane lane, Message writeFailedResponse) throws IOException, InterruptedException {
+        if (!isAbout(lane.ownRequest, name, writeFailedResponse) || lane.inCriticalSection) {
+            return;
+        }
+
+        lane.failed = true;
+
+        for (String voterName : lane.inquiringServers) {
+            if (lane.grantedServers.contains(voterName)) {
+                yieldVote(lane, voterName);
+            }
+        }
+
+        lane.inquiringServers.clear();
+    }
+
+    private void yieldVote(Lane lane, String voterName) throws IOException, InterruptedException {
+        logger.debug("%s yields the vote of %s for '%s'", name, voterName, lane.ownRequest);
+
+        lane.grantedServers.remove(voterName);
+        lane.yielded = true;
+        send(voterName, new Message(name, Message.MessageType.WriteYieldResponse, serverNode.incrementLocalTime(), referTo(lane.ownRequest)));
+    }
+
+    /**
+     * Votes, inquiries, failures, yields and releases name the file and the timestamp of the request they are about;
+     * a release from a peer also carries the written lines after the timestamp.
+     */
+    private static String referTo(Message writeAcquireRequest) {
+        return String.format("%s|%d", writeAcquireRequest.getFileNameFromPayload(), writeAcquireRequest.getTimeStamp());
+    }
+
+    private static boolean isAbout(Message writeAcquireRequest, String requesterName, Message message) {
+        if (writeAcquireRequest == null || !writeAcquireRequest.getSenderName().equals(requesterName)) {
+            return false;
+        }
+
+        String data = message.getDataFromPayload();
+        int separatorIndex = data.indexOf('|');
+        String timeStamp = separatorIndex < 0 ? data : data.substring(0, separatorIndex);
+
+        return writeAcquireRequest.getTimeStamp() == Long.parseLong(timeStamp);
+    }
+
+    private void send(String serverName, Message message) throws IOException, InterruptedException {
+        // this server is a member of its own voting set, its vote is handled in place
+        if (serverName.equals(name)) {
+            onMessage(message);
+            return;
+        }
+
+        serverNode.awaitServerAlive(serverName);
+        serverNode.sendToServer(serverName, message);
+    }
+
+    private Lane getLane(String fileName) {
+        return lanes.computeIfAbsent(fileName, f -> {
+            // voting sets are laid out over the replicas of the file, a server only ever requests the files it holds
+            List<String> quorum = serverNode.isReplicaOf(f) ? GridQuorum.of(serverNode.getReplicaNames(f), name) : Collections.emptyList();
+            logger.debug(() -> String.format("%s votes on '%s' with (%s)", name, f, String.join(", ", quorum)));
+
+            return new Lane(quorum);
+        });
+    }
+
+    private static class Lane {
+        private List<String> quorum;
+        private ReentrantLock localLock = new ReentrantLock(true);
+        // guards the other fields, a lock rather than the monitor so that waiting on virtual threads does not pin them
+        private ReentrantLock lock = new ReentrantLock();
+        private Condition changed = lock.newCondition();
+
+        // requester side
+        private Message ownRequest;
+        private Set<String> grantedServers = new HashSet<>();
+        private Set<String> inquiringServers = new HashSet<>();
+        private boolean failed;
+        private boolean yielded;
+        private boolean inCriticalSection;
+
+        // voter side
+        private Message votedRequest;
+        private PriorityQueue<Message> waitingRequests = new PriorityQueue<>();
+        private boolean inquired;
+
+        Lane(List<String> quorum) {
+            this.quorum = quorum;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+import java.io.IOException;
+
+/**
+ * Where a server writes the reply to a client request, independent of the network engine serving the connection.
+ */
+public interface MessageSink {
+    void send(Message message) throws IOException;
+}
@@ -0,0 +1,27 @@
+import java.io.IOException;
+
+/**
+ * Protocol deciding when a server may enter the critical section of a file, and how the lines written inside it
+ * reach the other replicas. {@link ServerNode} appends between {@link #enter(String)} and {@link #exit(Message)}
+ * and hands every protocol message from a peer to {@link #onMessage(Message)}.
+ */
+public interface MutualExclusion {
+    enum Mode {Lamport, RicartAgrawala, Maekawa}
+
+    /**
+     * Blocks until this server holds the critical section of the file named in the payload.
+     * Returns the request that was granted, carrying the whole "file|data" payload.
+     */
+    Message enter(String payload) throws IOException, InterruptedException;
+
+    /**
+     * Leaves the critical section after the data of the request has been appended locally, and makes sure every
+     * peer appends it as well.
+     */
+    void exit(Message writeAcquireRequest) throws IOException, InterruptedException;
+
+    /**
+     * Handles any protocol message received from a peer other than a WriteSyncRequest.
+     */
+    void onMessage(Message message) throws IOException, InterruptedException;
+}
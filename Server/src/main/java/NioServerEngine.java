@@ -0,0 +1,423 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking alternative to the thread-per-connection listener of {@link ServerNode}.
+ * A few event loops accept connections and cut the incoming bytes into frames (see {@link MessageStream}), then hand every message
+ * to a bounded worker pool. Messages of one connection are processed one at a time and in order, like the
+ * blocking handlers do, except client requests carrying a correlation id, which run side by side on the client pool.
+ * Peers and clients use separate pools so that clients blocked on the critical section never starve the peer messages
+ * they are waiting for.
+ */
+public class NioServerEngine {
+    private static final int MAX_PENDING_MESSAGES_PER_CONNECTION = 64;
+    private static final int MAX_MESSAGES_PER_DRAIN = 16;
+
+    private Logger logger;
+    private ServerNode serverNode;
+    private ServerInfo info;
+    private EventLoop[] eventLoops;
+    private ExecutorService serverWorkers;
+    private ExecutorService clientWorkers;
+    private AtomicInteger nextEventLoop;
+    private MessageStream.Framing preferredFraming;
+
+    public NioServerEngine(ServerNode serverNode, ServerInfo info, int eventLoopCount, int workerCount, Logger logger) {
+        this.serverNode = serverNode;
+        this.info = info;
+        this.logger = logger;
+        this.eventLoops = new EventLoop[eventLoopCount];
+        this.serverWorkers = Executors.newFixedThreadPool(workerCount);
+        this.clientWorkers = Executors.newFixedThreadPool(workerCount);
+        this.nextEventLoop = new AtomicInteger();
+    }
+
+    public void start(MessageStream.Framing preferredFraming) throws IOException {
+        this.preferredFraming = preferredFraming;
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getByName(info.getIpAddress()), info.getPort()), 100);
+        serverChannel.configureBlocking(false);
+
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop();
+
+            Thread thread = new Thread(eventLoops[i], String.format("%s-event-loop-%d", info.getName(), i));
+            thread.start();
+        }
+
+        eventLoops[0].execute(() -> eventLoops[0].register(serverChannel, SelectionKey.OP_ACCEPT, null));
+    }
+
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel = serverChannel.accept();
+
+        if (channel == null) {
+            return;
+        }
+
+        logger.debug("%s receives new request from %s", info.getName(), channel);
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        EventLoop eventLoop = eventLoops[Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length)];
+        Connection connection = new Connection(channel, eventLoop);
+        eventLoop.execute(() -> connection.key = eventLoop.register(channel, SelectionKey.OP_READ, connection));
+    }
+
+    private class EventLoop implements Runnable {
+        private Selector selector;
+        private ConcurrentLinkedQueue<Runnable> tasks;
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+            this.tasks = new ConcurrentLinkedQueue<>();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        SelectionKey register(SelectableChannel channel, int interestOps, Connection connection) {
+            try {
+                return channel.register(selector, interestOps, connection);
+            }
+            catch (ClosedChannelException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void run() {
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                try {
+                    selector.select();
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        if (!key.isValid()) {
+                            continue;
+                        }
+
+                        if (key.isAcceptable()) {
+                            accept((ServerSocketChannel) key.channel());
+                        }
+                        else {
+                            Connection connection = (Connection) key.attachment();
+
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        }
+                    }
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private class Connection implements MessageSink {
+        private SocketChannel channel;
+        private EventLoop eventLoop;
+        private SelectionKey key;
+        private ByteBuffer readBuffer;
+        private Boolean isServer;
+        private Queue<Message> pendingMessages;
+        private boolean isDraining;
+        private boolean isReadingPaused;
+        private boolean isClosed;
+        private Queue<ByteBuffer> writeQueue;
+        private MessageStream.Framing framing;
+        private boolean isConfirmationPending;
+        private MessageCodec encoder;
+        private MessageCodec decoder;
+
+        Connection(SocketChannel channel, EventLoop eventLoop) {
+            this.channel = channel;
+            this.eventLoop = eventLoop;
+            this.readBuffer = ByteBuffer.allocate(8192);
+            this.pendingMessages = new ArrayDeque<>();
+            this.writeQueue = new ArrayDeque<>();
+            this.framing = MessageStream.Framing.Text;
+            this.encoder = new MessageCodec();
+            this.decoder = new MessageCodec();
+        }
+
+        void read() {
+            try {
+                if (channel.read(readBuffer) < 0) {
+                    close();
+                    return;
+                }
+
+                readBuffer.flip();
+
+                int frameSize = 0;
+
+                while (readBuffer.remaining() >= 4 || (framing == MessageStream.Framing.Text && readBuffer.remaining() >= 2)) {
+                    if (framing == MessageStream.Framing.Binary) {
+                        int bodySize = readBuffer.getInt(readBuffer.position());
+
+                        if (bodySize < 0 || bodySize > MessageStream.MAX_FRAME_SIZE) {
+                            throw new IOException(String.format("Invalid frame length %d", bodySize));
+                        }
+
+                        frameSize = 4 + bodySize;
+                    }
+                    else {
+                        frameSize = 2 + (readBuffer.getShort(readBuffer.position()) & 0xFFFF);
+                    }
+
+                    if (readBuffer.remaining() < frameSize) {
+                        break;
+                    }
+
+                    byte[] frame = new byte[frameSize];
+                    readBuffer.get(frame);
+
+                    if (framing == MessageStream.Framing.Binary) {
+                        onMessage(decoder.decode(ByteBuffer.wrap(frame, 4, frameSize - 4).slice()));
+                    }
+                    else {
+                        onTextFrame(new DataInputStream(new ByteArrayInputStream(frame)).readUTF());
+                    }
+                }
+
+                readBuffer.compact();
+
+                if (frameSize > readBuffer.capacity()) {
+                    ByteBuffer largerBuffer = ByteBuffer.allocate(Math.max(frameSize, readBuffer.capacity() * 2));
+                    readBuffer.flip();
+                    largerBuffer.put(readBuffer);
+                    readBuffer = largerBuffer;
+                }
+            }
+            catch (IOException e) {
+                close();
+            }
+        }
+
+        private void onTextFrame(String text) throws IOException {
+            // the first frame is the "Server ..." or "Client ..." greeting, possibly proposing binary framing
+            if (isServer == null) {
+                isServer = text.toLowerCase().startsWith("server");
+                serverNode.getMetrics().addConnection(isServer, 1);
+
+                if (text.endsWith(MessageStream.BINARY_PROPOSAL)) {
+                    if (preferredFraming == MessageStream.Framing.Binary) {
+                        // binary framing starts with the confirmation of the connecting node, see MessageStream
+                        sendText(MessageStream.BINARY_PROPOSAL);
+                        isConfirmationPending = true;
+                    }
+                    else {
+                        sendText(MessageStream.TEXT_ANSWER);
+                    }
+                }
+
+                return;
+            }
+
+            if (isConfirmationPending) {
+                isConfirmationPending = false;
+
+                if (text.equals(MessageStream.BINARY_PROPOSAL)) {
+                    framing = MessageStream.Framing.Binary;
+                    return;
+                }
+            }
+
+            onMessage(new Message(text));
+        }
+
+        private void onMessage(Message message) {
+            synchronized (pendingMessages) {
+                pendingMessages.add(message);
+
+                if (pendingMessages.size() >= MAX_PENDING_MESSAGES_PER_CONNECTION && !isReadingPaused) {
+                    isReadingPaused = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+
+                if (!isDraining) {
+                    isDraining = true;
+                    (isServer ? serverWorkers : clientWorkers).execute(this::drain);
+                }
+            }
+        }
+
+        private void drain() {
+            for (int i = 0; i < MAX_MESSAGES_PER_DRAIN; i++) {
+                Message message;
+
+                synchronized (pendingMessages) {
+                    message = pendingMessages.poll();
+
+                    if (message == null) {
+                        isDraining = false;
+                        return;
+                    }
+
+                    if (isReadingPaused && pendingMessages.size() < MAX_PENDING_MESSAGES_PER_CONNECTION / 2) {
+                        isReadingPaused = false;
+                        eventLoop.execute(() -> {
+                            if (key.isValid()) {
+                                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                            }
+                        });
+                    }
+                }
+
+                if (!isServer && message.getCorrelationId() != 0) {
+                    Message request = message;
+                    clientWorkers.execute(() -> {
+                        try {
+                            serverNode.processClientMessage(request, this);
+                        }
+                        catch (Exception e) {
+                            close();
+                        }
+                    });
+                    continue;
+                }
+
+                try {
+                    if (isServer) {
+                        serverNode.processServerMessage(message);
+                    }
+                    else {
+                        serverNode.processClientMessage(message, this);
+                    }
+                }
+                catch (Exception e) {
+                    if (isServer) {
+                        e.printStackTrace();
+                    }
+
+                    close();
+                    return;
+                }
+            }
+
+            // give other connections a turn before continuing with this one
+            (isServer ? serverWorkers : clientWorkers).execute(this::drain);
+        }
+
+        @Override
+        public void send(Message message) throws IOException {
+            synchronized (writeQueue) {
+                // encode under the lock since the binary encoder is stateful and must see messages in sending order
+                if (framing == MessageStream.Framing.Binary) {
+                    byte[] body = encoder.encode(message);
+                    ByteBuffer buffer = ByteBuffer.allocate(4 + body.length);
+                    buffer.putInt(body.length).put(body).flip();
+                    enqueue(buffer);
+                }
+                else {
+                    sendText(message.toString());
+                }
+            }
+        }
+
+        private void sendText(String text) throws IOException {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            new DataOutputStream(frame).writeUTF(text);
+
+            synchronized (writeQueue) {
+                enqueue(ByteBuffer.wrap(frame.toByteArray()));
+            }
+        }
+
+        private void enqueue(ByteBuffer buffer) throws IOException {
+            synchronized (writeQueue) {
+                if (writeQueue.isEmpty()) {
+                    channel.write(buffer);
+
+                    if (!buffer.hasRemaining()) {
+                        return;
+                    }
+
+                    eventLoop.execute(() -> {
+                        if (key.isValid()) {
+                            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        }
+                    });
+                }
+
+                writeQueue.add(buffer);
+            }
+        }
+
+        void flush() {
+            try {
+                synchronized (writeQueue) {
+                    while (!writeQueue.isEmpty()) {
+                        ByteBuffer buffer = writeQueue.peek();
+                        channel.write(buffer);
+
+                        if (buffer.hasRemaining()) {
+                            return;
+                        }
+
+                        writeQueue.poll();
+                    }
+
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                }
+            }
+            catch (IOException e) {
+                close();
+            }
+        }
+
+        private synchronized void close() {
+            // the event loop and the workers may all find the connection broken, it is counted as closed once
+            if (isClosed) {
+                return;
+            }
+
+            isClosed = true;
+
+            if (isServer != null) {
+                serverNode.getMetrics().addConnection(isServer, -1);
+            }
+
+            if (key != null) {
+                key.cancel();
+            }
+
+            try {
+                channel.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+}
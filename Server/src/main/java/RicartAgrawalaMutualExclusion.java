@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ricart-Agrawala's algorithm: a server answers a request right away unless its own pending request is older,
+ * in which case the answer is deferred until it leaves the critical section. Holding back the answer replaces
+ * the release, and the deferred answer carries the lines written in the critical section so that it also replaces
+ * the sync. Peers that were answered right away get a plain sync instead.
+ * A write costs between 2 and 3 messages per peer instead of 4.
+ */
+public class RicartAgrawalaMutualExclusion implements MutualExclusion {
+    private ServerNode serverNode;
+    private Logger logger;
+    private String name;
+    private ConcurrentHashMap<String, Lane> lanes;
+
+    public RicartAgrawalaMutualExclusion(ServerNode serverNode, Logger logger) {
+        this.serverNode = serverNode;
+        this.logger = logger;
+        this.name = serverNode.getName();
+        this.lanes = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public Message enter(String payload) throws IOException, InterruptedException {
+        String fileName = payload.substring(0, Math.max(0, payload.indexOf('|')));
+        Lane lane = getLane(fileName);
+
+        // the algorithm allows one pending request per server, so local writers of the same file queue up here first
+        lane.localLock.lockInterruptibly();
+
+        Message writeAcquireRequest;
+
+        lane.lock.lock();
+        try {
+            writeAcquireRequest = new Message(name, Message.MessageType.WriteAcquireRequest, serverNode.incrementLocalTime(), payload);
+            lane.ownRequest = writeAcquireRequest;
+            lane.repliedServers.clear();
+        }
+        finally {
+            lane.lock.unlock();
+        }
+
+        // peers only need the file name to compete, the data travels once the critical section is over
+        serverNode.notifyPeers(fileName, new Message(name, Message.MessageType.WriteAcquireRequest, writeAcquireRequest.getTimeStamp(), fileName));
+
+        logger.debug("%s check allowance to proceed to critical section for message '%s'...", name, writeAcquireRequest);
+
+        lane.lock.lock();
+        try {
+            while (!lane.repliedServers.containsAll(serverNode.getPeerNames(fileName))) {
+                logger.debug("%s waits for critical section access to '%s'...", name, fileName);
+                lane.changed.await();
+            }
+        }
+        finally {
+            lane.lock.unlock();
+        }
+
+        return writeAcquireRequest;
+    }
+
+    @Override
+    public void exit(Message writeAcquireRequest) throws IOException, InterruptedException {
+        Lane lane = getLane(writeAcquireRequest.getFileNameFromPayload());
+
+        // requests arriving meanwhile are answered once the data is sent, so that no answer overtakes the sync
+        lane.lock.lock();
+        try {
+            // a deferred answer doubles as the sync, everyone else was answered already and only needs the data;
+            // syncs go first so that the data is on its way to them before the next writer is let in
+            for (String serverName : serverNode.getPeerNames(writeAcquireRequest.getFileNameFromPayload())) {
+                if (!lane.deferredServers.contains(serverName)) {
+                    sendToAliveServer(serverName, new Message(name, Message.MessageType.WriteSyncRequest, serverNode.incrementLocalTime(), writeAcquireRequest.getPayload()));
+                }
+            }
+
+            for (String serverName : lane.deferredServers) {
+                sendToAliveServer(serverName, new Message(name, Message.MessageType.WriteAcquireResponse, serverNode.incrementLocalTime(), writeAcquireRequest.getPayload()));
+            }
+
+            lane.ownRequest = null;
+            lane.deferredServers.clear();
+        }
+        finally {
+            lane.lock.unlock();
+        }
+
+        lane.localLock.unlock();
+    }
+
+    @Override
+    public void onMessage(Message receivedMessage) throws IOException, InterruptedException {
+        String fileName = receivedMessage.getFileNameFromPayload();
+        Lane lane = getLane(fileName);
+
+        if (receivedMessage.getType() == Message.MessageType.WriteAcquireRequest) {
+            lane.lock.lock();
+            try {
+                // the own request is either in the critical section or older, so the peer has to wait for it
+                if (lane.ownRequest != null && lane.ownRequest.compareTo(receivedMessage) < 0) {
+                    logger.debug("%s defers the answer to '%s' from %s", name, receivedMessage, receivedMessage.getSenderName());
+                    lane.deferredServers.add(receivedMessage.getSenderName());
+                    return;
+                }
+            }
+            finally {
+                lane.lock.unlock();
+            }
+
+            Message responseMessage = new Message(name, Message.MessageType.WriteAcquireResponse, serverNode.incrementLocalTime(), fileName);
+            // the requester may have connected to this server before this server connected back to it
+            sendToAliveServer(receivedMessage.getSenderName(), responseMessage);
+        }
+        else if (receivedMessage.getType() == Message.MessageType.WriteAcquireResponse) {
+            // a deferred answer comes with the lines its sender has just written
+            if (receivedMessage.getPayload().indexOf('|') >= 0) {
+                serverNode.appendToFile(fileName, receivedMessage.getDataFromPayload());
+            }
+
+            lane.lock.lock();
+            try {
+                lane.repliedServers.add(receivedMessage.getSenderName());
+                lane.changed.signalAll();
+            }
+            finally {
+                lane.lock.unlock();
+            }
+        }
+    }
+
+    private void sendToAliveServer(String serverName, Message message) throws IOException, InterruptedException {
+        serverNode.awaitServerAlive(serverName);
+        serverNode.sendToServer(serverName, message);
+    }
+
+    private Lane getLane(String fileName) {
+        return lanes.computeIfAbsent(fileName, f -> new Lane());
+    }
+
+    private static class Lane {
+        private ReentrantLock localLock = new ReentrantLock(true);
+        // guards the other fields, a lock rather than the monitor so that waiting on virtual threads does not pin them
+        private ReentrantLock lock = new ReentrantLock();
+        private Condition changed = lock.newCondition();
+        private Message ownRequest;
+        private Set<String> repliedServers = new HashSet<>();
+        private Set<String> deferredServers = new HashSet<>();
+    }
+}
@@ -6,6 +6,7 @@ public class Server {
     public static void main(String[] args) {
         try {
             ArrayList<ServerInfo> otherServers = new ArrayList<>();
+            Options options = new Options();
             ServerInfo serverInfo = null;
             String directoryPath = null;
             String configurationFile;
@@ -55,9 +56,13 @@ public class Server {
                         otherServers.add(new ServerInfo(input));
                     }
                 }
+
+                while (scanner.hasNextLine()) {
+                    options.parse(scanner.nextLine());
+                }
             }
 
-            ServerNode serverNode = new ServerNode(serverInfo, otherServers, directoryPath);
+            ServerNode serverNode = new ServerNode(serverInfo, otherServers, directoryPath, options);
             serverNode.up();
         }
         catch (Exception e) {
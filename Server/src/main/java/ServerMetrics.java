@@ -0,0 +1,188 @@
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timers of one server, exposed over JMX. Recording happens on the paths serving every message, so it
+ * never locks: counters are {@link LongAdder}s, striped across threads, the per-type counters are found by the ordinal
+ * of the type, and latencies go into {@link LatencyHistogram}s. Queue depths are read from the queues when asked for.
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    private ConcurrentHashMap<String, CommandQueue> commandsQueues;
+    private LatencyHistogram criticalSectionWait;
+    private LatencyHistogram criticalSectionHold;
+    private LatencyHistogram appendLatency;
+    private LongAdder[] sentMessagesByType;
+    private LongAdder[] receivedMessagesByType;
+    private ConcurrentHashMap<String, LongAdder> sentMessagesByPeer;
+    private ConcurrentHashMap<String, LongAdder> receivedMessagesByPeer;
+    private LongAdder readCharsServed;
+    private LongAdder serverConnectionCount;
+    private LongAdder clientConnectionCount;
+
+    public ServerMetrics(ConcurrentHashMap<String, CommandQueue> commandsQueues) {
+        this.commandsQueues = commandsQueues;
+        this.criticalSectionWait = new LatencyHistogram();
+        this.criticalSectionHold = new LatencyHistogram();
+        this.appendLatency = new LatencyHistogram();
+        this.sentMessagesByType = createCounters();
+        this.receivedMessagesByType = createCounters();
+        this.sentMessagesByPeer = new ConcurrentHashMap<>();
+        this.receivedMessagesByPeer = new ConcurrentHashMap<>();
+        this.readCharsServed = new LongAdder();
+        this.serverConnectionCount = new LongAdder();
+        this.clientConnectionCount = new LongAdder();
+    }
+
+    /**
+     * Registers the metrics as "Byzantine:type=ServerNode,name=serverName", replacing the metrics of an earlier server
+     * with the same name in this process (e.g. a previous cluster of the simulator).
+     */
+    public void register(String serverName) throws JMException {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(String.format("Byzantine:type=ServerNode,name=%s", ObjectName.quote(serverName)));
+
+        if (mBeanServer.isRegistered(objectName)) {
+            mBeanServer.unregisterMBean(objectName);
+        }
+
+        mBeanServer.registerMBean(this, objectName);
+    }
+
+    public void onSent(Message message, String peerName) {
+        sentMessagesByType[message.getType().ordinal()].increment();
+        getCounter(sentMessagesByPeer, peerName).increment();
+    }
+
+    public void onReceived(Message message) {
+        receivedMessagesByType[message.getType().ordinal()].increment();
+        getCounter(receivedMessagesByPeer, message.getSenderName()).increment();
+    }
+
+    public void recordCriticalSectionWait(long nanoseconds) {
+        criticalSectionWait.record(nanoseconds);
+    }
+
+    public void recordCriticalSectionHold(long nanoseconds) {
+        criticalSectionHold.record(nanoseconds);
+    }
+
+    public void recordAppend(long nanoseconds) {
+        appendLatency.record(nanoseconds);
+    }
+
+    public void addReadCharsServed(long charCount) {
+        readCharsServed.add(charCount);
+    }
+
+    /**
+     * Counts a connection of a server (or a client) as opened, or as closed with a change of -1.
+     */
+    public void addConnection(boolean isServer, int change) {
+        (isServer ? serverConnectionCount : clientConnectionCount).add(change);
+    }
+
+    @Override
+    public int getCommandQueueDepth() {
+        return commandsQueues.values().stream().mapToInt(CommandQueue::size).sum();
+    }
+
+    @Override
+    public Map<String, Integer> getCommandQueueDepths() {
+        Map<String, Integer> depths = new TreeMap<>();
+        commandsQueues.forEach((fileName, commandQueue) -> depths.put(fileName, commandQueue.size()));
+        return depths;
+    }
+
+    @Override
+    public LatencySummary getCriticalSectionWait() {
+        return new LatencySummary(criticalSectionWait);
+    }
+
+    @Override
+    public LatencySummary getCriticalSectionHold() {
+        return new LatencySummary(criticalSectionHold);
+    }
+
+    @Override
+    public LatencySummary getAppendLatency() {
+        return new LatencySummary(appendLatency);
+    }
+
+    @Override
+    public Map<String, Long> getSentMessagesByType() {
+        return toMap(sentMessagesByType);
+    }
+
+    @Override
+    public Map<String, Long> getSentMessagesByPeer() {
+        return toMap(sentMessagesByPeer);
+    }
+
+    @Override
+    public Map<String, Long> getReceivedMessagesByType() {
+        return toMap(receivedMessagesByType);
+    }
+
+    @Override
+    public Map<String, Long> getReceivedMessagesByPeer() {
+        return toMap(receivedMessagesByPeer);
+    }
+
+    @Override
+    public long getReadCharsServed() {
+        return readCharsServed.sum();
+    }
+
+    @Override
+    public int getServerConnectionCount() {
+        return serverConnectionCount.intValue();
+    }
+
+    @Override
+    public int getClientConnectionCount() {
+        return clientConnectionCount.intValue();
+    }
+
+    private static LongAdder[] createCounters() {
+        LongAdder[] counters = new LongAdder[Message.MessageType.values().length];
+
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+
+        return counters;
+    }
+
+    private static LongAdder getCounter(ConcurrentHashMap<String, LongAdder> counters, String name) {
+        // the peers are known after the first messages, so the lookup without locking is the one that succeeds
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    private static Map<String, Long> toMap(LongAdder[] counters) {
+        Map<String, Long> map = new TreeMap<>();
+        Message.MessageType[] types = Message.MessageType.values();
+
+        for (int i = 0; i < counters.length; i++) {
+            long count = counters[i].sum();
+
+            if (count > 0) {
+                map.put(types[i].toString(), count);
+            }
+        }
+
+        return map;
+    }
+
+    private static Map<String, Long> toMap(ConcurrentHashMap<String, LongAdder> counters) {
+        Map<String, Long> map = new TreeMap<>();
+        counters.forEach((name, counter) -> map.put(name, counter.sum()));
+        return map;
+    }
+}
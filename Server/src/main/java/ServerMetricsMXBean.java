@@ -0,0 +1,91 @@
+import java.util.Map;
+
+/**
+ * Management interface of {@link ServerMetrics}, registered with the platform MBean server as
+ * "Byzantine:type=ServerNode,name=&lt;server name&gt;" so that JConsole or any JMX client can read it.
+ */
+public interface ServerMetricsMXBean {
+    /**
+     * Requests waiting in the command queues of all files.
+     */
+    int getCommandQueueDepth();
+
+    Map<String, Integer> getCommandQueueDepths();
+
+    /**
+     * Time from asking for the critical section of a file until it is granted.
+     */
+    LatencySummary getCriticalSectionWait();
+
+    /**
+     * Time from entering the critical section of a file until leaving it, replicas synced.
+     */
+    LatencySummary getCriticalSectionHold();
+
+    /**
+     * Time to append the lines of a write to the local file, waiting for the file's lock included.
+     */
+    LatencySummary getAppendLatency();
+
+    Map<String, Long> getSentMessagesByType();
+
+    Map<String, Long> getSentMessagesByPeer();
+
+    Map<String, Long> getReceivedMessagesByType();
+
+    Map<String, Long> getReceivedMessagesByPeer();
+
+    /**
+     * Chars of file content sent in answer to reads (bytes for ASCII files).
+     */
+    long getReadCharsServed();
+
+    int getServerConnectionCount();
+
+    int getClientConnectionCount();
+
+    /**
+     * Count and percentiles of a latency since the server started, in milliseconds.
+     */
+    class LatencySummary {
+        private long count;
+        private double meanMillis;
+        private double p50Millis;
+        private double p99Millis;
+        private double p999Millis;
+        private double maxMillis;
+
+        public LatencySummary(LatencyHistogram latencies) {
+            this.count = latencies.getCount();
+            this.meanMillis = latencies.getMean() / 1e6;
+            this.p50Millis = latencies.getValueAtPercentile(50) / 1e6;
+            this.p99Millis = latencies.getValueAtPercentile(99) / 1e6;
+            this.p999Millis = latencies.getValueAtPercentile(99.9) / 1e6;
+            this.maxMillis = latencies.getMax() / 1e6;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMillis() {
+            return meanMillis;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getP999Millis() {
+            return p999Millis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+    }
+}
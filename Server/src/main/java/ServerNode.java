@@ -1,5 +1,3 @@
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
@@ -8,47 +6,146 @@ import java.net.Socket;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.management.JMException;
 
 public class ServerNode {
-    private final int TIME_DIFFERENCE_BETWEEN_PROCESSES = 1;
-    private Logger logger = new Logger(Logger.LogLevel.Release);
-    private int localTime;
+    public enum Engine {Blocking, Nio}
+
+    private final String DEDUPLICATION_SNAPSHOT_FILE_NAME = ".dedup";
+    // a chunk of at most 16K chars stays below the 64 KB limit of writeUTF even with 3 bytes per char
+    private final int DEFAULT_READ_CHUNK_SIZE = 16 * 1024;
+    private Logger logger;
+    private LamportClock clock;
     private ServerInfo info;
     private String directoryPath;
-    private PriorityQueue<Message> commandsQueue;
-    private Hashtable<String, Socket> serverSockets;
+    private ConcurrentHashMap<String, CommandQueue> commandsQueues;
+    private ConcurrentHashMap<String, ReentrantReadWriteLock> fileLocks;
+    private ConcurrentHashMap<String, MessageStream> serverStreams;
     private ArrayList<ServerInfo> otherServers;
-    private HashSet<String> processedMessagesToAppendToFile;
+    private WriteDeduplicator writeDeduplicator;
+    private FileAppenderPool fileAppenderPool;
+    private ContentCache readCache;
+    private ConcurrentHashMap<String, LineOffsetIndex> lineIndexes;
+    private ThreadMode threadMode;
+    private ExecutorService clientRequestExecutor;
+    private FailureDetector failureDetector;
+    private WriteBatcher writeBatcher;
+    private Options options;
+    private MessageStream.Framing framing;
+    private MutualExclusion mutualExclusion;
+    private PlacementRing placementRing;
+    private ConcurrentHashMap<String, List<String>> peerNames;
+    private LongAdder sentMessageCount;
+    private ServerMetrics metrics;
 
     public ServerNode(ServerInfo serverInfo, ArrayList<ServerInfo> otherServerInfos, String directoryPath) {
-        this.localTime = 0;
+        this(serverInfo, otherServerInfos, directoryPath, new Options());
+    }
+
+    public ServerNode(ServerInfo serverInfo, ArrayList<ServerInfo> otherServerInfos, String directoryPath, Options options) {
+        this.clock = new LamportClock();
+        this.options = options;
+        this.logger = new Logger(options);
+        this.framing = options.getEnum("framing", MessageStream.Framing.Binary);
         this.info = serverInfo;
         this.directoryPath = directoryPath;
         this.otherServers = otherServerInfos;
-        this.serverSockets = new Hashtable<>();
-        this.commandsQueue = new PriorityQueue<>();
-        this.processedMessagesToAppendToFile = new HashSet<>();
+        this.serverStreams = new ConcurrentHashMap<>();
+        this.commandsQueues = new ConcurrentHashMap<>();
+        this.fileLocks = new ConcurrentHashMap<>();
+        this.metrics = new ServerMetrics(commandsQueues);
+        this.writeDeduplicator = new WriteDeduplicator(options.getInt("dedup.window", WriteDeduplicator.DEFAULT_WINDOW),
+                options.getInt("dedup.maxWindows", WriteDeduplicator.DEFAULT_MAX_WINDOWS));
+        this.fileAppenderPool = new FileAppenderPool(
+                options.getInt("storage.openFiles", FileAppenderPool.DEFAULT_MAX_OPEN_FILES),
+                options.getEnum("storage.durability", FileAppenderPool.Durability.None),
+                options.getLong("storage.sync.interval", FileAppenderPool.DEFAULT_SYNC_INTERVAL));
+        this.readCache = new ContentCache(options.getLong("read.cache.bytes", ContentCache.DEFAULT_BUDGET));
+        this.lineIndexes = new ConcurrentHashMap<>();
+        this.threadMode = options.getEnum("threads", ThreadMode.Platform);
+        this.clientRequestExecutor = threadMode.newThreadPerTaskExecutor();
+        this.failureDetector = new FailureDetector();
+        this.sentMessageCount = new LongAdder();
+        this.peerNames = new ConcurrentHashMap<>();
+
+        // without a replication factor every server holds every file, like before placement existed
+        int replicationFactor = options.getInt("placement.replicas", 0);
+        if (replicationFactor > 0) {
+            this.placementRing = new PlacementRing(getAllServerNames(), replicationFactor,
+                    options.getInt("placement.virtualNodes", PlacementRing.DEFAULT_VIRTUAL_NODES));
+        }
 
-        logger.debug(String.format("Ensure directory '%s' exists (absolute path = '%s')", directoryPath, new File(directoryPath).getAbsolutePath()));
+        switch (options.getEnum("mutex", MutualExclusion.Mode.Lamport)) {
+            case RicartAgrawala:
+                this.mutualExclusion = new RicartAgrawalaMutualExclusion(this, logger);
+                break;
+            case Maekawa:
+                this.mutualExclusion = new MaekawaMutualExclusion(this, logger);
+                break;
+            default:
+                this.mutualExclusion = new LamportMutualExclusion(this, logger);
+                break;
+        }
+
+        long batchWindow = options.getLong("write.batch.window", 0);
+        if (batchWindow > 0) {
+            this.writeBatcher = new WriteBatcher(batchWindow, options.getInt("write.batch.size", 64),
+                    (fileName, records) -> writeThroughCriticalSession(String.format("%s|%s", fileName, String.join("", records))));
+        }
+
+        logger.debug("Ensure directory '%s' exists (absolute path = '%s')", directoryPath, new File(directoryPath).getAbsolutePath());
         FileUtil.createDirectory(directoryPath);
+
+        try {
+            writeDeduplicator.load(Paths.get(directoryPath, DEDUPLICATION_SNAPSHOT_FILE_NAME));
+        }
+        catch (IOException e) {
+            logger.log("%s fails to load the deduplication snapshot, starting without: %s", this.info.getName(), e.getMessage());
+        }
     }
 
     public void up() throws IOException {
-        logger.log(String.format("%s starts listening on (%s:%d)...", this.info.getName(), this.info.getIpAddress(), this.info.getPort()));
+        logger.log("%s starts listening on (%s:%d)...", this.info.getName(), this.info.getIpAddress(), this.info.getPort());
 
-        ServerSocket serverSocket = new ServerSocket(this.info.getPort(), 100, InetAddress.getByName(this.info.getIpAddress()));
-
-        Thread listenThread = new Thread(() -> {
+        if (options.getBoolean("metrics.jmx", true)) {
             try {
-                listenForIncomingMessages(serverSocket);
+                metrics.register(this.info.getName());
             }
-            catch (IOException e) {
-                e.printStackTrace();
+            catch (JMException e) {
+                logger.log("%s fails to register its metrics: %s", this.info.getName(), e.getMessage());
             }
-        });
-        listenThread.start();
+        }
+
+        if (threadMode == ThreadMode.Virtual && !ThreadMode.isVirtualSupported()) {
+            logger.log("%s runs on Java %s without virtual threads, using platform threads", this.info.getName(), System.getProperty("java.version"));
+        }
+
+        if (options.getEnum("engine", Engine.Blocking) == Engine.Nio) {
+            int availableProcessors = Runtime.getRuntime().availableProcessors();
+            NioServerEngine engine = new NioServerEngine(this, this.info,
+                    options.getInt("nio.eventLoops", Math.max(1, availableProcessors / 2)),
+                    options.getInt("nio.workers", Math.max(4, availableProcessors * 2)),
+                    logger);
+            engine.start(framing);
+        }
+        else {
+            ServerSocket serverSocket = new ServerSocket(this.info.getPort(), 100, InetAddress.getByName(this.info.getIpAddress()));
+
+            Thread listenThread = new Thread(() -> {
+                try {
+                    listenForIncomingMessages(serverSocket);
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            listenThread.start();
+        }
 
         Thread linkToOtherServersThread = new Thread(() -> {
             try {
@@ -59,6 +156,131 @@ public class ServerNode {
             }
         });
         linkToOtherServersThread.start();
+
+        Thread heartbeatThread = new Thread(() -> {
+            try {
+                sendHeartbeats();
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        heartbeatThread.setDaemon(true);
+        heartbeatThread.start();
+
+        Thread snapshotThread = new Thread(() -> {
+            try {
+                saveDeduplicationSnapshots();
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        snapshotThread.setDaemon(true);
+        snapshotThread.start();
+    }
+
+    String getName() {
+        return this.info.getName();
+    }
+
+    /**
+     * Names of every configured server, this one included, whether connected yet or not.
+     */
+    List<String> getAllServerNames() {
+        List<String> serverNames = new ArrayList<>();
+        serverNames.add(this.info.getName());
+
+        for (ServerInfo otherServer : otherServers) {
+            serverNames.add(otherServer.getName());
+        }
+
+        return serverNames;
+    }
+
+    /**
+     * Servers holding the file, this one included: its replica group when placement is on, every server otherwise.
+     */
+    List<String> getReplicaNames(String fileName) {
+        return placementRing == null ? getAllServerNames() : placementRing.getReplicas(fileName);
+    }
+
+    boolean isReplicaOf(String fileName) {
+        return placementRing == null || placementRing.getReplicas(fileName).contains(this.info.getName());
+    }
+
+    /**
+     * Peers competing for the critical section of the file and receiving its writes.
+     */
+    Collection<String> getPeerNames(String fileName) {
+        if (placementRing == null) {
+            return serverStreams.keySet();
+        }
+
+        return peerNames.computeIfAbsent(fileName, f -> {
+            List<String> replicaNames = new ArrayList<>(placementRing.getReplicas(f));
+            replicaNames.remove(this.info.getName());
+            return replicaNames;
+        });
+    }
+
+    public boolean isConnectedToAllServers() {
+        return serverStreams.size() == otherServers.size();
+    }
+
+    /**
+     * Cache of file contents served to ClientReadRequests, with its hit, miss and eviction counters.
+     */
+    public ContentCache getReadCache() {
+        return readCache;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Number of protocol messages sent to other servers so far, heartbeats excluded.
+     */
+    public long getSentMessageCount() {
+        return sentMessageCount.sum();
+    }
+
+    private void sendHeartbeats() throws InterruptedException {
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            Message heartbeat = new Message(this.info.getName(), Message.MessageType.Heartbeat, clock.getTime(), "");
+
+            for (String serverName : serverStreams.keySet()) {
+                try {
+                    serverStreams.get(serverName).write(heartbeat);
+                    metrics.onSent(heartbeat, serverName);
+                }
+                catch (IOException e) {
+                    logger.debug("%s fails to send heartbeat to %s", this.info.getName(), serverName);
+                    failureDetector.suspect(serverName);
+                }
+            }
+
+            Thread.sleep(failureDetector.getHeartbeatInterval());
+        }
+    }
+
+    private void saveDeduplicationSnapshots() throws InterruptedException {
+        long interval = options.getLong("dedup.snapshot.interval", 1000);
+        Path snapshotPath = Paths.get(directoryPath, DEDUPLICATION_SNAPSHOT_FILE_NAME);
+
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            Thread.sleep(interval);
+
+            try {
+                writeDeduplicator.save(snapshotPath);
+            }
+            catch (IOException e) {
+                logger.log("%s fails to save the deduplication snapshot: %s", this.info.getName(), e.getMessage());
+            }
+        }
     }
 
     private void populateServerSockets() throws InterruptedException {
@@ -67,27 +289,32 @@ public class ServerNode {
             return;
         }
 
-        for (int trial = 0; trial < 2; trial++) {
+        int connectAttempts = options.getInt("connect.attempts", 2);
+
+        for (int trial = 0; trial < connectAttempts; trial++) {
             for (ServerInfo otherServer : this.otherServers) {
-                if (serverSockets.containsKey(otherServer.getName())) {
+                if (serverStreams.containsKey(otherServer.getName())) {
                     continue;
                 }
 
-                logger.debug(String.format("%s tries to connect to %s...", this.info.getName(), otherServer));
+                logger.debug("%s tries to connect to %s...", this.info.getName(), otherServer);
 
                 try {
                     Socket socket = new Socket(otherServer.getIpAddress(), otherServer.getPort());
-                    sendMessage(socket, String.format("Server %s", this.info.getName()), otherServer.getName());
-                    serverSockets.put(otherServer.getName(), socket);
+                    String greeting = String.format("Server %s", this.info.getName());
+
+                    logger.log("%s sends '%s' to %s", this.info.getName(), greeting, otherServer.getName());
+                    serverStreams.put(otherServer.getName(), MessageStream.connect(socket, greeting, framing));
+                    failureDetector.heartbeat(otherServer.getName());
 
-                    logger.debug(String.format("%s successfully connects to %s", this.info.getName(), otherServer));
+                    logger.debug("%s successfully connects to %s", this.info.getName(), otherServer);
                 }
                 catch (IOException ignored) {
-                    logger.debug(String.format("%s fails to connect to %s - attempt %d", this.info.getName(), otherServer, trial + 1));
+                    logger.debug("%s fails to connect to %s - attempt %d", this.info.getName(), otherServer, trial + 1);
                 }
             }
 
-            if (serverSockets.keySet().size() == otherServers.size()) {
+            if (serverStreams.keySet().size() == otherServers.size()) {
                 break;
             }
             else {
@@ -95,16 +322,16 @@ public class ServerNode {
             }
         }
 
-        if (serverSockets.size() == 0) {
-            logger.debug(String.format("%s cannot connect to any other servers", this.info.getName()));
+        if (serverStreams.size() == 0) {
+            logger.debug("%s cannot connect to any other servers", this.info.getName());
         }
-        else if (serverSockets.size() < otherServers.size()) {
-            String successfulServers = String.join(", ", serverSockets.keySet());
-            logger.debug(String.format("%s successfully connects to %s server(s): (%s)",
-                    this.info.getName(), serverSockets.size(), successfulServers));
+        else if (serverStreams.size() < otherServers.size()) {
+            String successfulServers = String.join(", ", serverStreams.keySet());
+            logger.debug("%s successfully connects to %s server(s): (%s)",
+                    this.info.getName(), serverStreams.size(), successfulServers);
         }
         else {
-            logger.debug(String.format("%s connect to all server(s)", this.info.getName()));
+            logger.debug("%s connect to all server(s)", this.info.getName());
         }
     }
 
@@ -114,14 +341,16 @@ public class ServerNode {
         //noinspection InfiniteLoopStatement
         while (true) {
             incomingSocket = serverSocket.accept();
-            Socket finalSocket = incomingSocket;
 
-            logger.debug(String.format("%s receives new request from %s", this.info.getName(), incomingSocket));
+            logger.debug("%s receives new request from %s", this.info.getName(), incomingSocket);
 
-            if (isServerSocket(finalSocket)) {
-                Thread thread = new Thread(() -> {
+            MessageStream finalStream = MessageStream.accept(incomingSocket, framing);
+
+            // a thread per connection, which spends its life blocked on reads, the protocol waits and the disk
+            if (isServerStream(finalStream)) {
+                Thread thread = threadMode.newThread("server-connection", () -> {
                     try {
-                        handleServerServerCommunication(finalSocket);
+                        handleServerServerCommunication(finalStream);
                     }
                     catch (IOException e) {
                         e.printStackTrace();
@@ -131,9 +360,9 @@ public class ServerNode {
                 thread.start();
             }
             else {
-                Thread thread = new Thread(() -> {
+                Thread thread = threadMode.newThread("client-connection", () -> {
                     try {
-                        handleClientServerCommunication(finalSocket);
+                        handleClientServerCommunication(finalStream);
                     }
                     catch (IOException e) {
                         e.printStackTrace();
@@ -145,248 +374,409 @@ public class ServerNode {
         }
     }
 
-    private void handleServerServerCommunication(Socket socket) throws IOException {
+    private void handleServerServerCommunication(MessageStream stream) throws IOException {
         boolean communicationOn = true;
-        DataInputStream dis = new DataInputStream(socket.getInputStream());
+        metrics.addConnection(true, 1);
 
         while (communicationOn) {
             try {
-                String receivedMessageString = dis.readUTF();
-                Message receivedMessage = new Message(receivedMessageString);
-
-                logger.log(String.format("%s receives '%s' from %s", this.info.getName(), receivedMessageString, receivedMessage.getSenderName()));
-
-                setLocalTime(receivedMessage.getTimeStamp());
-                incrementLocalTime();
+                processServerMessage(stream.read());
+            }
+            catch (Exception e) {
+                communicationOn = false;
+                e.printStackTrace();
+            }
+        }
 
-                if (receivedMessage.getType() == Message.MessageType.WriteAcquireRequest) {
-                    addToQueue(receivedMessage);
+        metrics.addConnection(true, -1);
+        stream.close();
+    }
 
-                    Message responseMessage = new Message(this.info.getName(), Message.MessageType.WriteAcquireResponse, localTime, receivedMessage.getPayload());
-                    Socket serverSocket = serverSockets.get(receivedMessage.getSenderName());
+    private void handleClientServerCommunication(MessageStream stream) throws IOException {
+        boolean communicationOn = true;
+        metrics.addConnection(false, 1);
 
-                    while(!isSocketReachable(serverSocket)) {
-                        Thread.sleep(100);
-                    }
+        while (communicationOn) {
+            try {
+                Message receivedMessage = stream.read();
 
-                    sendMessage(serverSocket, responseMessage.toString(), receivedMessage.getSenderName());
-                }
-                else if (receivedMessage.getType() == Message.MessageType.WriteAcquireResponse) {
-                    addToQueue(receivedMessage);
-                }
-                else if (receivedMessage.getType() == Message.MessageType.WriteReleaseRequest) {
-                    // only remove the WriteAcquireRequest counterpart
-                    removeFromQueue(m ->
-                            m.getSenderName().equals(receivedMessage.getSenderName()) &&
-                                    m.getType() == Message.MessageType.WriteAcquireRequest &&
-                                    m.getTimeStamp() < receivedMessage.getTimeStamp());
+                // requests carrying an id are answered in any order, so a client may keep many of them in flight
+                if (receivedMessage.getCorrelationId() == 0) {
+                    processClientMessage(receivedMessage, stream::write);
                 }
-                else if (receivedMessage.getType() == Message.MessageType.WriteSyncRequest) {
-                    // append to file directly since this message type can only occur when 1 and only 1 server process in critical session
-                    String fileName = receivedMessage.getFileNameFromPayload();
-                    String lineToAppend = receivedMessage.getDataFromPayload();
-                    appendToFile(fileName, lineToAppend);
+                else {
+                    clientRequestExecutor.execute(() -> {
+                        try {
+                            processClientMessage(receivedMessage, stream::write);
+                        }
+                        catch (Exception e) {
+                            closeQuietly(stream);
+                        }
+                    });
                 }
             }
             catch (Exception e) {
                 communicationOn = false;
-                e.printStackTrace();
             }
         }
 
-        dis.close();
+        metrics.addConnection(false, -1);
+        stream.close();
     }
 
-    private void handleClientServerCommunication(Socket socket) throws IOException {
-        boolean communicationOn = true;
-        DataInputStream dis = new DataInputStream(socket.getInputStream());
+    private static void closeQuietly(MessageStream stream) {
+        try {
+            stream.close();
+        }
+        catch (IOException ignored) {
+        }
+    }
 
-        while (communicationOn) {
-            try {
-                String receivedMessageString = dis.readUTF();
-                Message receivedMessage = new Message(receivedMessageString);
-                String fileName = receivedMessage.getFileNameFromPayload();
-                Message responseMessage = null;
+    void processServerMessage(Message receivedMessage) throws IOException, InterruptedException {
+        // any message from a peer proves it is alive, heartbeats carry nothing else
+        failureDetector.heartbeat(receivedMessage.getSenderName());
+        metrics.onReceived(receivedMessage);
 
-                logger.log(String.format("%s receives '%s' from %s", this.info.getName(), receivedMessageString, receivedMessage.getSenderName()));
-                setLocalTime(receivedMessage.getTimeStamp());
-                incrementLocalTime();
+        if (receivedMessage.getType() == Message.MessageType.Heartbeat) {
+            logger.debug("%s receives heartbeat from %s", this.info.getName(), receivedMessage.getSenderName());
+            return;
+        }
 
-                if(receivedMessage.getType().equals(Message.MessageType.ClientWriteRequest)) {
-                    Message writeAcquireRequest = new Message(this.info.getName(), Message.MessageType.WriteAcquireRequest, localTime, receivedMessage.getPayload());
+        logger.log("%s receives '%s' from %s", this.info.getName(), receivedMessage, receivedMessage.getSenderName());
 
-                    addToQueue(writeAcquireRequest);
-                    notifyAllServers(writeAcquireRequest);
-                    processCriticalSession(writeAcquireRequest);
-                    incrementLocalTime();
+        clock.receive(receivedMessage.getTimeStamp());
 
-                    responseMessage = new Message(this.info.getName(), Message.MessageType.WriteSuccessAck, localTime, "");
-                }
-                else {
-                    Path fullPath = Paths.get(directoryPath, fileName).toAbsolutePath();
+        if (receivedMessage.getType() == Message.MessageType.WriteSyncRequest) {
+            // append to file directly since this message type can only occur when 1 and only 1 server process in critical session
+            String fileName = receivedMessage.getFileNameFromPayload();
+            String lineToAppend = receivedMessage.getDataFromPayload();
+            appendToFile(fileName, lineToAppend);
+        }
+        else {
+            mutualExclusion.onMessage(receivedMessage);
+        }
+    }
 
-                    if (FileUtil.exists(String.valueOf(fullPath))) {
-                        String content = FileUtil.getFileContent(fullPath.toString());
-                        responseMessage = new Message(this.info.getName(), Message.MessageType.ReadSuccessAck, localTime, content);
-                    }
-                    else {
-                        responseMessage = new Message(this.info.getName(), Message.MessageType.ReadFailureAck, localTime, String.format("File '%s' does not exist", fileName));
-                    }
-                }
+    void processClientMessage(Message receivedMessage, MessageSink replySink) throws IOException, InterruptedException {
+        String fileName = receivedMessage.getFileNameFromPayload();
+        Message responseMessage;
+
+        metrics.onReceived(receivedMessage);
+
+        // every response to the client, read chunks included, is counted on its way out
+        MessageSink clientSink = message -> {
+            replySink.send(message);
+            metrics.onSent(message, receivedMessage.getSenderName());
+        };
+
+        if (receivedMessage.getType() == Message.MessageType.Heartbeat) {
+            logger.debug("%s receives heartbeat from %s", this.info.getName(), receivedMessage.getSenderName());
+            clientSink.send(new Message(this.info.getName(), Message.MessageType.Heartbeat, clock.getTime(), "", receivedMessage.getCorrelationId()));
+            return;
+        }
+
+        logger.log("%s receives '%s' from %s", this.info.getName(), receivedMessage, receivedMessage.getSenderName());
+        clock.receive(receivedMessage.getTimeStamp());
 
-                while(!isSocketReachable(socket)) {
-                    Thread.sleep(100);
+        if(receivedMessage.getType().equals(Message.MessageType.ClientWriteRequest) && !isReplicaOf(fileName)) {
+            // the other servers of the file would neither wait for nor sync with this one
+            String errorMessage = String.format("%s|%s is not a replica of the file", fileName, this.info.getName());
+            responseMessage = new Message(this.info.getName(), Message.MessageType.WriteFailureAck, incrementLocalTime(), errorMessage, receivedMessage.getCorrelationId());
+        }
+        else if(receivedMessage.getType().equals(Message.MessageType.ClientWriteRequest)) {
+            // the client sends "file|requestId|line", every replica appends it as a record of the client's write
+            String data = receivedMessage.getDataFromPayload();
+            int lineStart = data.indexOf('|') + 1;
+
+            if (lineStart == 0) {
+                throw new IllegalArgumentException(String.format("Malformed write request '%s'", receivedMessage));
+            }
+
+            String record = new WriteRecord(receivedMessage.getSenderName(), Long.parseLong(data.substring(0, lineStart - 1)), data.substring(lineStart)).toString();
+            boolean isWritten;
+
+            if (writeBatcher == null) {
+                isWritten = !writeThroughCriticalSession(String.format("%s|%s", fileName, record)).contains(record);
+            }
+            else {
+                try {
+                    isWritten = writeBatcher.submit(fileName, record).get();
+                }
+                catch (ExecutionException e) {
+                    throw new IOException(String.format("%s fails to write batch to '%s'", this.info.getName(), fileName), e.getCause());
                 }
+            }
 
-                sendMessage(socket, responseMessage.toString(), receivedMessage.getSenderName());
+            if (isWritten) {
+                responseMessage = new Message(this.info.getName(), Message.MessageType.WriteSuccessAck, incrementLocalTime(), "", receivedMessage.getCorrelationId());
             }
-            catch (Exception e) {
-                communicationOn = false;
+            else {
+                String errorMessage = String.format("%s|%s cannot tell the write from a duplicate any more", fileName, this.info.getName());
+                responseMessage = new Message(this.info.getName(), Message.MessageType.WriteFailureAck, incrementLocalTime(), errorMessage, receivedMessage.getCorrelationId());
             }
         }
+        else {
+            responseMessage = readFile(receivedMessage, clientSink);
+        }
 
-        dis.close();
+        // the client has just been heard from, so reply right away
+        logger.log("%s sends '%s' to %s", this.info.getName(), responseMessage, receivedMessage.getSenderName());
+        clientSink.send(responseMessage);
     }
 
-    private boolean isSocketReachable(Socket socket) {
-        boolean isReachable = false;
+    /**
+     * Sends all but the last chunk of the requested content as ReadChunkAcks and returns the ReadSuccessAck carrying
+     * the last one, or a ReadFailureAck if the file does not exist. A file small enough to be cached is served from
+     * its line index, a larger one is streamed from disk through a fixed-size buffer, starting at the checkpoint of its
+     * {@link LineOffsetIndex} closest to the first line asked for.
+     */
+    private Message readFile(Message readRequest, MessageSink replySink) throws IOException {
+        // "file" reads the whole file, "file|fromLine" only the lines from that one on, prefixed with the line count
+        // the client passes as fromLine next time
+        String fileName = readRequest.getFileNameFromPayload();
+        String fromLineText = readRequest.getDataFromPayload();
+        int fromLine = fromLineText.isEmpty() ? 0 : Integer.parseInt(fromLineText);
+        String fullPath = String.valueOf(Paths.get(directoryPath, fileName).toAbsolutePath());
+        int chunkSize = options.getInt("read.chunk.size", DEFAULT_READ_CHUNK_SIZE);
+        ContentCache.Slice slice;
+        LineOffsetIndex.Checkpoint checkpoint = null;
+        long byteCount = 0;
+
+        // a lock is only ever made for a file that exists, so reads of made-up names leave nothing behind
+        if (!fileLocks.containsKey(fileName) && !FileUtil.exists(fullPath)) {
+            return new Message(this.info.getName(), Message.MessageType.ReadFailureAck, clock.getTime(), String.format("File '%s' does not exist", fileName), readRequest.getCorrelationId());
+        }
 
+        // loading happens under the read lock of the file, so no append can slip in between the read and the caching;
+        // the protocol of the file goes on meanwhile, only the appends to it wait
+        ReentrantReadWriteLock.ReadLock fileLock = getFileLock(fileName).readLock();
+        fileLock.lock();
         try {
-            isReachable = socket.getInetAddress().isReachable(10000);
+            slice = readCache.get(fileName, fromLine);
+
+            if (slice == null) {
+                if (!FileUtil.exists(fullPath)) {
+                    return new Message(this.info.getName(), Message.MessageType.ReadFailureAck, clock.getTime(), String.format("File '%s' does not exist", fileName), readRequest.getCorrelationId());
+                }
+
+                byteCount = new File(fullPath).length();
+
+                if (byteCount <= options.getLong("read.cache.maxFileBytes", ContentCache.DEFAULT_BUDGET / 64)) {
+                    List<String> lines = FileUtil.getFileLines(fullPath);
+                    readCache.put(fileName, lines);
+                    slice = new ContentCache.Slice(lines.size(), String.join("{newLine}", lines.subList(Math.min(Math.max(fromLine, 0), lines.size()), lines.size())));
+                }
+                else {
+                    // only the first read of the file scans all of it, later ones index what was appended since
+                    LineOffsetIndex lineIndex = lineIndexes.computeIfAbsent(fileName, name -> new LineOffsetIndex());
+                    lineIndex.catchUp(fullPath, byteCount);
+                    checkpoint = lineIndex.getCheckpoint(fromLine);
+                }
+            }
         }
-        catch (Exception ignored) {
+        finally {
+            fileLock.unlock();
         }
 
-        logger.debug(String.format("%s can reach %s: %s", this.info.getName(), socket, isReachable));
+        // the last chunk is held back, it goes into the ReadSuccessAck that ends the response
+        ArrayDeque<String> lastChunk = new ArrayDeque<>(1);
+        ChunkedFileReader.ChunkConsumer chunkSender = chunk -> {
+            if (!lastChunk.isEmpty()) {
+                Message chunkMessage = new Message(this.info.getName(), Message.MessageType.ReadChunkAck, clock.getTime(), lastChunk.poll(), readRequest.getCorrelationId());
+                metrics.addReadCharsServed(chunkMessage.getPayload().length());
+                logger.debug("%s sends a chunk of '%s' to %s", this.info.getName(), fileName, readRequest.getSenderName());
+                replySink.send(chunkMessage);
+            }
 
-        return isReachable;
-    }
+            lastChunk.add(chunk);
+        };
+        int lineCount;
 
-    private boolean isServerSocket(Socket socket) throws IOException {
-        DataInputStream dis = new DataInputStream(socket.getInputStream());
-        String socketType = dis.readUTF();
-        return socketType.toLowerCase().startsWith("server");
-    }
+        if (slice != null) {
+            sendInChunks(slice.getContent(), chunkSize, chunkSender);
+            lineCount = slice.getLineCount();
+        }
+        else {
+            // outside the lock, appends keep going; the ones after the size was taken are left for the next read
+            lineCount = checkpoint.getLine() + ChunkedFileReader.read(fullPath, checkpoint.getOffset(), byteCount,
+                    Math.max(fromLine, 0) - checkpoint.getLine(), chunkSize, chunkSender);
+        }
 
-    private void sendMessage(Socket socket, String messageText, String recipientName) throws IOException {
-        logger.log(String.format("%s sends '%s' to %s", this.info.getName(), messageText, recipientName));
+        String content = lastChunk.isEmpty() ? "" : lastChunk.poll();
+        metrics.addReadCharsServed(content.length());
+        String payload = fromLineText.isEmpty() ? content : String.format("%d|%s", lineCount, content);
 
-        DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-        dos.writeUTF(messageText);
+        return new Message(this.info.getName(), Message.MessageType.ReadSuccessAck, clock.getTime(), payload, readRequest.getCorrelationId());
     }
 
-    private synchronized void incrementLocalTime() {
-        localTime += TIME_DIFFERENCE_BETWEEN_PROCESSES;
-    }
+    private static void sendInChunks(String content, int chunkSize, ChunkedFileReader.ChunkConsumer chunkSender) throws IOException {
+        int start = 0;
 
-    private synchronized void setLocalTime(int messageTimeStamp) {
-        localTime = Math.max(localTime, messageTimeStamp + TIME_DIFFERENCE_BETWEEN_PROCESSES);
-    }
-
-    private synchronized void addToQueue(Message message) {
-        logger.debug(String.format("%s adds message '%s' to the queue", this.info.getName(), message.toString()));
-        logger.debug(String.format("%s queue size before add = %d", this.info.getName(), commandsQueue.size()));
+        while (start < content.length()) {
+            int end = Math.min(content.length(), start + chunkSize);
 
-        commandsQueue.add(message);
+            // both halves of a surrogate pair go into the same chunk, each chunk is encoded on its own
+            if (end < content.length() && end - start > 1 && Character.isHighSurrogate(content.charAt(end - 1))) {
+                end--;
+            }
 
-        logger.debug(String.format("%s queue size after add = %d", this.info.getName(), commandsQueue.size()));
+            chunkSender.accept(content.substring(start, end));
+            start = end;
+        }
     }
 
-    private synchronized void removeFromQueue(Predicate<Message> filter) {
-        logger.debug(String.format("%s removes messages off the queue", this.info.getName()));
-        logger.debug(String.format("%s queue size before remove = %d", this.info.getName(), commandsQueue.size()));
+    /**
+     * Appends the records of the payload in a critical section of their file and returns the ones that were refused.
+     */
+    private Set<String> writeThroughCriticalSession(String payload) throws IOException, InterruptedException {
+        long requestTime = System.nanoTime();
+        Message writeAcquireRequest = mutualExclusion.enter(payload);
+        long enterTime = System.nanoTime();
+        metrics.recordCriticalSectionWait(enterTime - requestTime);
 
-        List<Message> removingMessages = commandsQueue.stream().filter(filter).collect(Collectors.toList());
-        for(Message message : removingMessages) {
-            logger.debug(String.format("%s removes '%s' off the queue", this.info.getName(), message.toString()));
-        }
+        logger.debug("%s goes into critical section...", this.info.getName());
+
+        Set<String> refusedRecords = appendToFile(writeAcquireRequest.getFileNameFromPayload(), writeAcquireRequest.getDataFromPayload());
 
-        commandsQueue.removeAll(removingMessages);
+        mutualExclusion.exit(writeAcquireRequest);
+        metrics.recordCriticalSectionHold(System.nanoTime() - enterTime);
 
-        logger.debug(String.format("%s queue size after remove = %d", this.info.getName(), commandsQueue.size()));
+        logger.debug("%s goes out of critical section...", this.info.getName());
+
+        return refusedRecords;
     }
 
-    private boolean isMessageFirstInQueue(Message message) {
-        if (commandsQueue.isEmpty()) {
-            return true;
+    void awaitServerAlive(String serverName) throws InterruptedException {
+        // only reads the liveness table maintained by the heartbeats, never probes the network;
+        // a peer that connected to this server may be heard from before this server has connected back
+        while (!failureDetector.isAlive(serverName) || !serverStreams.containsKey(serverName)) {
+            logger.debug("%s waits for %s to be reachable...", this.info.getName(), serverName);
+            Thread.sleep(failureDetector.getHeartbeatInterval());
         }
+    }
 
-        Message top = commandsQueue.peek();
+    private boolean isServerStream(MessageStream stream) {
+        return stream.getGreeting().toLowerCase().startsWith("server");
+    }
 
-        logger.debug(String.format("%s queue top = '%s'", this.info.getName(), top.toString()));
-        logger.debug(String.format("%s current message = '%s'", this.info.getName(), message.toString()));
+    private void sendMessage(MessageStream stream, Message message, String recipientName) throws IOException {
+        logger.log("%s sends '%s' to %s", this.info.getName(), message, recipientName);
 
-        return top.getSenderName().equals(message.getSenderName()) &&
-                top.getTimeStamp() == message.getTimeStamp();
+        // several threads (handlers, critical section, heartbeats) share the same outgoing stream, which serializes writes
+        stream.write(message);
+        sentMessageCount.increment();
+        metrics.onSent(message, recipientName);
     }
 
-    private boolean isAllConfirmToAllowEnterCriticalSession(Message writeAcquireRequest) {
-        String[] allSendersAfterWriteRequest = commandsQueue
-                .stream()
-                .filter(message -> message.getTimeStamp() > writeAcquireRequest.getTimeStamp())
-                .map(Message::getSenderName)
-                .distinct()
-                .toArray(String[]::new);
+    void sendToServer(String serverName, Message message) throws IOException {
+        sendMessage(serverStreams.get(serverName), message, serverName);
+    }
 
-        logger.debug(String.format("%s all senders after request = (%s)", this.info.getName(), String.join(", ", allSendersAfterWriteRequest)));
+    long incrementLocalTime() {
+        return clock.tick();
+    }
 
-        return allSendersAfterWriteRequest.length >= serverSockets.size();
+    CommandQueue getCommandsQueue(String fileName) {
+        return commandsQueues.computeIfAbsent(fileName, CommandQueue::new);
     }
 
-    private void processCriticalSession(Message writeAcquireRequest) throws InterruptedException, IOException {
-        logger.debug(String.format("%s check allowance to proceed to critical section for message '%s'...", this.info.getName(), writeAcquireRequest.toString()));
+    /**
+     * Lock of the content of a file: appends take the write lock, cache loads the read lock. It is separate from the
+     * locks of the mutual exclusion protocol, so that disk I/O never holds up protocol messages.
+     */
+    private ReentrantReadWriteLock getFileLock(String fileName) {
+        return fileLocks.computeIfAbsent(fileName, name -> new ReentrantReadWriteLock());
+    }
 
-        while (!isMessageFirstInQueue(writeAcquireRequest) || !isAllConfirmToAllowEnterCriticalSession(writeAcquireRequest)) {
-            logger.debug(String.format("%s waits for critical section access...", this.info.getName()));
-            Thread.sleep(100);
+    void notifyPeers(String fileName, Message message) throws IOException, InterruptedException {
+        for(String serverName : getPeerNames(fileName)) {
+            awaitServerAlive(serverName);
+            sendMessage(serverStreams.get(serverName), message, serverName);
         }
+    }
 
-        logger.debug(String.format("%s goes into critical section...", this.info.getName()));
-
-        String fileName = writeAcquireRequest.getFileNameFromPayload();
-        String lineToAppend = writeAcquireRequest.getDataFromPayload();
-        appendToFile(fileName, lineToAppend);
-        incrementLocalTime();
+    /**
+     * Splits client lines the way reading the file back splits them, so that the line index of the cache stays that
+     * of the file when a client line holds line breaks of its own.
+     */
+    private static List<String> toFileLines(List<String> lines) {
+        List<String> fileLines = new ArrayList<>(lines.size());
 
-        Message writeSyncRequest = new Message(this.info.getName(), Message.MessageType.WriteSyncRequest, localTime, writeAcquireRequest.getPayload());
-        notifyAllServers(writeSyncRequest);
+        for (String line : lines) {
+            if (line.indexOf('\n') < 0 && line.indexOf('\r') < 0) {
+                fileLines.add(line);
+            }
+            else {
+                fileLines.addAll(Arrays.asList(line.split("\r\n|\r|\n", -1)));
+            }
+        }
 
-        // since current writeSyncRequest must be the highest timestamped message in the queue for the current payload,
-        // therefore can remove any message for this payload with lesser timestamp
-        removeFromQueue(m -> m.compareTo(writeSyncRequest) < 0 && m.getPayload().equals(writeSyncRequest.getPayload()));
-        incrementLocalTime();
+        return fileLines;
+    }
 
-        Message writeReleaseRequest = new Message(this.info.getName(), Message.MessageType.WriteReleaseRequest, localTime, "");
-        notifyAllServers(writeReleaseRequest);
-        incrementLocalTime();
+    /**
+     * Appends the records not appended before and returns the ones refused because their request id is older than the
+     * deduplication window of their client and file: whether they were appended already cannot be told any more.
+     */
+    Set<String> appendToFile(String fileName, String records) throws IOException {
+        long startTime = System.nanoTime();
+        Set<String> refusedRecords = new HashSet<>();
+
+        // appends to the same file are serialized on the lock of the file, appends to different files run in parallel
+        ReentrantReadWriteLock.WriteLock fileLock = getFileLock(fileName).writeLock();
+        fileLock.lock();
+        try {
+            // a batch carries one record per client write, and replicas may batch the same writes differently;
+            // every client write reaches a replica once per server the client sent it to, so it is recognized by its id
+            List<String> lines = new ArrayList<>();
 
-        logger.debug(String.format("%s goes out of critical section...", this.info.getName()));
-    }
+            for (WriteRecord record : WriteRecord.parseAll(records)) {
+                String clientName = record.getClientName();
+                long requestId = record.getRequestId();
+                String line = record.getLine();
 
-    private void notifyAllServers(Message message) throws IOException, InterruptedException {
-        for(String serverName : serverSockets.keySet()) {
-            Socket serverSocket = serverSockets.get(serverName);
+                WriteDeduplicator.Result result = writeDeduplicator.add(clientName, fileName, requestId);
 
-            while(!isSocketReachable(serverSocket)) {
-                Thread.sleep(100);
+                if (result == WriteDeduplicator.Result.Duplicate) {
+                    logger.debug("%s already appended '%s' to file '%s'. Skipping...", this.info.getName(), line, fileName);
+                }
+                else if (result == WriteDeduplicator.Result.Expired) {
+                    logger.log("%s refuses '%s' to file '%s': request id %d of %s is older than the deduplication window", this.info.getName(), line, fileName, requestId, clientName);
+                    refusedRecords.add(record.toString());
+                }
+                else {
+                    logger.log("%s appends '%s' to file '%s'", this.info.getName(), line, fileName);
+                    lines.add(line);
+                }
             }
 
-            sendMessage(serverSocket, message.toString(), serverName);
-        }
-    }
+            // the new lines of a batch go to the file in one write, and in one fsync if the durability mode asks for it
+            if (!lines.isEmpty()) {
+                Path filePath = Paths.get(directoryPath, fileName).toAbsolutePath();
+                LineOffsetIndex lineIndex = lineIndexes.get(fileName);
 
-    private synchronized void appendToFile(String fileName, String message) throws IOException {
-        String combo = String.format("%s|%s", fileName, message);
+                try {
+                    fileAppenderPool.append(String.valueOf(filePath), lines);
+                }
+                catch (IOException e) {
+                    // part of the lines may have reached the file, the index is made again by the next read
+                    lineIndexes.remove(fileName);
+                    throw e;
+                }
 
-        if(processedMessagesToAppendToFile.contains(combo)) {
-            logger.debug(String.format("%s already appended '%s' to file '%s'. Skipping...", this.info.getName(), message, fileName));
-        }
-        else {
-            logger.log(String.format("%s appends '%s' to file '%s'", this.info.getName(), message, fileName));
+                readCache.append(fileName, toFileLines(lines));
 
-            Path filePath = Paths.get(directoryPath, fileName).toAbsolutePath();
-            FileUtil.appendToFile(String.valueOf(filePath), message);
-            processedMessagesToAppendToFile.add(combo);
+                if (lineIndex != null) {
+                    lineIndex.append(lines);
+                }
+            }
         }
+        finally {
+            fileLock.unlock();
+        }
+
+        metrics.recordAppend(System.nanoTime() - startTime);
+
+        return refusedRecords;
     }
 }
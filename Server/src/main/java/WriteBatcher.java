@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Group commit of client writes: the lines written to the same file within a time window (or until the batch is
+ * full) go through a single critical section and a single multi-line WriteSyncRequest.
+ * Every submitter gets a future that completes once its batch has been written, telling whether its line was taken.
+ */
+public class WriteBatcher {
+    public interface BatchWriter {
+        /**
+         * Writes the lines and returns the ones that were refused.
+         */
+        Set<String> write(String fileName, List<String> lines) throws IOException, InterruptedException;
+    }
+
+    private long window;
+    private int maxBatchSize;
+    private BatchWriter batchWriter;
+    private HashMap<String, Batch> openBatches;
+    private ReentrantLock lock;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService flushers;
+
+    public WriteBatcher(long window, int maxBatchSize, BatchWriter batchWriter) {
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+        this.batchWriter = batchWriter;
+        this.openBatches = new HashMap<>();
+        this.lock = new ReentrantLock();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger flusherCount = new AtomicInteger();
+        // daemons like the scheduler, so that an idle batcher never keeps the process alive
+        this.flushers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, String.format("write-batcher-flusher-%d", flusherCount.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<Boolean> submit(String fileName, String line) {
+        // a lock rather than a monitor, since submitters may be virtual threads
+        lock.lock();
+        try {
+            Batch batch = openBatches.get(fileName);
+
+            if (batch == null) {
+                Batch newBatch = new Batch(fileName);
+                batch = newBatch;
+                openBatches.put(fileName, newBatch);
+                scheduler.schedule(() -> close(newBatch), window, TimeUnit.MILLISECONDS);
+            }
+
+            batch.lines.add(line);
+
+            if (batch.lines.size() >= maxBatchSize) {
+                close(batch);
+            }
+
+            return batch.future.thenApply(refusedLines -> !refusedLines.contains(line));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void close(Batch batch) {
+        lock.lock();
+        try {
+            // the batch may have been closed already because it filled up before the window ended
+            if (openBatches.get(batch.fileName) != batch) {
+                return;
+            }
+
+            openBatches.remove(batch.fileName);
+        }
+        finally {
+            lock.unlock();
+        }
+
+        flushers.execute(() -> {
+            try {
+                batch.future.complete(batchWriter.write(batch.fileName, batch.lines));
+            }
+            catch (Exception e) {
+                batch.future.completeExceptionally(e);
+            }
+        });
+    }
+
+    private static class Batch {
+        private String fileName;
+        private List<String> lines;
+        private CompletableFuture<Set<String>> future;
+
+        Batch(String fileName) {
+            this.fileName = fileName;
+            this.lines = new ArrayList<>();
+            this.future = new CompletableFuture<>();
+        }
+    }
+}
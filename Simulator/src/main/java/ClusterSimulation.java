@@ -0,0 +1,180 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs servers and clients in one process, every connection going through a {@link SimulatedLink}, and applies a
+ * scenario of channel faults while the clients run their load. Prints the throughput and latency of every client and
+ * of all of them together.
+ * <p>
+ * Arguments are {@code key=value} pairs: {@code servers}, {@code clients}, {@code firstPort}, {@code delay} (ms on
+ * every link), {@code disrupt} (comma separated {@code nodeA/nodeB@start-end}, in seconds from the start of the load),
+ * {@code partition} (comma separated {@code node+node+...@start-end}, cutting the group off from the other nodes); any
+ * other pair is an option of both the servers and the clients, e.g. {@code mutex=maekawa} or {@code load.rate=200}.
+ */
+public class ClusterSimulation {
+    public static void main(String[] args) {
+        try {
+            Options options = new Options();
+            options.set("log.level", "off");
+            options.set("connect.attempts", "20");
+            options.set("load.thinkTime", "0");
+            options.set("load.operations", "0");
+            options.set("load.duration", "10");
+
+            for (String arg : args) {
+                options.parse(arg);
+            }
+
+            options.set("cluster.links", LocalCluster.Links.Simulated.toString());
+
+            int serverCount = options.getInt("servers", 5);
+            int clientCount = options.getInt("clients", 3);
+            long delay = options.getLong("delay", 0);
+
+            LocalCluster cluster = new LocalCluster(serverCount, options.getInt("firstPort", 9300), options);
+            cluster.setDelay(delay);
+            cluster.up();
+
+            List<ClientNode> clientNodes = new ArrayList<>();
+
+            for (int i = 0; i < clientCount; i++) {
+                String clientName = String.format("Client%d", i);
+                ClientNode clientNode = new ClientNode(clientName, cluster.getServerInfos(clientName), options);
+                clientNode.startHeartbeats();
+                clientNodes.add(clientNode);
+            }
+
+            System.out.println(String.format("%d servers, %d clients, %d ms delay, disruptions: %s, partitions: %s", serverCount, clientCount, delay,
+                    options.get("disrupt", "none"), options.get("partition", "none")));
+
+            ScheduledExecutorService faultScheduler = Executors.newSingleThreadScheduledExecutor();
+            scheduleDisruptions(cluster, faultScheduler, options.get("disrupt", ""));
+            schedulePartitions(cluster, faultScheduler, options.get("partition", ""));
+
+            run(clientNodes, options);
+
+            faultScheduler.shutdownNow();
+
+            // the servers keep listening forever
+            System.exit(0);
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static void run(List<ClientNode> clientNodes, Options options) throws InterruptedException {
+        List<LoadGenerator> loadGenerators = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (ClientNode clientNode : clientNodes) {
+            LoadGenerator loadGenerator = new LoadGenerator(clientNode, options, new Logger(options));
+            Thread thread = new Thread(() -> {
+                try {
+                    loadGenerator.run();
+                }
+                catch (InterruptedException ignored) {
+                }
+            });
+
+            loadGenerators.add(loadGenerator);
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        LatencyHistogram readLatencies = new LatencyHistogram();
+        LatencyHistogram writeLatencies = new LatencyHistogram();
+        long readFailureCount = 0;
+        long writeFailureCount = 0;
+        long elapsedTime = 0;
+
+        for (int i = 0; i < clientNodes.size(); i++) {
+            LoadGenerator loadGenerator = loadGenerators.get(i);
+
+            for (String line : loadGenerator.getSummary()) {
+                System.out.println(String.format("%s: %s", clientNodes.get(i).getName(), line));
+            }
+
+            readLatencies.add(loadGenerator.getReadLatencies());
+            writeLatencies.add(loadGenerator.getWriteLatencies());
+            readFailureCount += loadGenerator.getReadFailureCount();
+            writeFailureCount += loadGenerator.getWriteFailureCount();
+            elapsedTime = Math.max(elapsedTime, loadGenerator.getElapsedTime());
+        }
+
+        for (String line : LoadGenerator.getSummary(readLatencies, writeLatencies, readFailureCount, writeFailureCount, elapsedTime)) {
+            System.out.println(String.format("all clients: %s", line));
+        }
+    }
+
+    private static void scheduleDisruptions(LocalCluster cluster, ScheduledExecutorService faultScheduler, String disruptions) {
+        for (String disruption : splitList(disruptions)) {
+            String[] nodeNames = getTarget(disruption).split("/");
+
+            if (nodeNames.length != 2) {
+                throw new IllegalArgumentException(String.format("Disruption '%s' is not in 'nodeA/nodeB@start-end' format", disruption));
+            }
+
+            schedule(faultScheduler, disruption, isDisrupted -> cluster.setDisrupted(nodeNames[0], nodeNames[1], isDisrupted));
+        }
+    }
+
+    private static void schedulePartitions(LocalCluster cluster, ScheduledExecutorService faultScheduler, String partitions) {
+        for (String partition : splitList(partitions)) {
+            List<String> nodeNames = Arrays.asList(getTarget(partition).split("\\+"));
+
+            schedule(faultScheduler, partition, isPartitioned -> cluster.setPartitioned(nodeNames, isPartitioned));
+        }
+    }
+
+    /**
+     * Starts the fault at the start second of its "target@start-end" specification and ends it at the end second.
+     */
+    private static void schedule(ScheduledExecutorService faultScheduler, String fault, Consumer<Boolean> faultSwitch) {
+        int separatorIndex = fault.lastIndexOf('@');
+        String[] times = separatorIndex < 0 ? new String[0] : fault.substring(separatorIndex + 1).split("-");
+
+        if (times.length != 2) {
+            throw new IllegalArgumentException(String.format("Fault '%s' has no '@start-end' seconds", fault));
+        }
+
+        long start = (long) (Double.parseDouble(times[0]) * 1000);
+        long end = (long) (Double.parseDouble(times[1]) * 1000);
+
+        faultScheduler.schedule(() -> {
+            System.out.println(String.format("%.1f s: %s starts", start / 1000.0, getTarget(fault)));
+            faultSwitch.accept(true);
+        }, start, TimeUnit.MILLISECONDS);
+        faultScheduler.schedule(() -> {
+            System.out.println(String.format("%.1f s: %s ends", end / 1000.0, getTarget(fault)));
+            faultSwitch.accept(false);
+        }, end, TimeUnit.MILLISECONDS);
+    }
+
+    private static String getTarget(String fault) {
+        int separatorIndex = fault.lastIndexOf('@');
+        return separatorIndex < 0 ? fault : fault.substring(0, separatorIndex);
+    }
+
+    private static List<String> splitList(String list) {
+        List<String> items = new ArrayList<>();
+
+        for (String item : list.split(",")) {
+            if (!item.trim().isEmpty()) {
+                items.add(item.trim());
+            }
+        }
+
+        return items;
+    }
+}
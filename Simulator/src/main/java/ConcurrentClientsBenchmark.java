@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how an in-process cluster copes with many concurrent clients, each holding one blocking connection to a
+ * server and waiting for the response to a request before sending the next one. Requests carry no correlation id, so
+ * every connection keeps a handler thread of its server busy, and every client is a thread of its own: with
+ * {@code threads=platform} that is two platform threads per client, with {@code threads=virtual} two virtual threads.
+ * The benchmark reports the throughput and latency of the requests that succeeded, the number of those that failed
+ * and the peak number of platform threads of the process.
+ * <p>
+ * Arguments are {@code key=value} pairs: {@code servers}, {@code clients} (comma separated counts, one round each),
+ * {@code duration} (seconds per round), {@code files}, {@code readPercent}, {@code firstPort}; any other pair is
+ * handed to the servers as an option, {@code threads} included. Every client holds two sockets in this process, so
+ * 10000 clients need {@code ulimit -n} well above 20000.
+ */
+public class ConcurrentClientsBenchmark {
+    private static final double NANOSECONDS_PER_MILLISECOND = 1e6;
+
+    public static void main(String[] args) {
+        try {
+            Options options = new Options();
+            options.set("log.level", "off");
+            options.set("connect.attempts", "20");
+            options.set("metrics.jmx", "false");
+
+            for (String arg : args) {
+                options.parse(arg);
+            }
+
+            int serverCount = options.getInt("servers", 3);
+            int fileCount = options.getInt("files", 20);
+            int readPercent = options.getInt("readPercent", 90);
+            long duration = options.getLong("duration", 10);
+            int firstPort = options.getInt("firstPort", 9500);
+            ThreadMode threadMode = options.getEnum("threads", ThreadMode.Platform);
+
+            if (threadMode == ThreadMode.Virtual && !ThreadMode.isVirtualSupported()) {
+                System.out.println(String.format("Java %s has no virtual threads, running on platform threads", System.getProperty("java.version")));
+            }
+
+            System.out.println(String.format("%d servers, %s threads, %d files, %d%% reads, %d s per round", serverCount, threadMode, fileCount, readPercent, duration));
+            System.out.println(String.format("%8s %12s %10s %10s %10s %10s %16s", "clients", "requests/s", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "platform threads"));
+
+            for (String clients : options.get("clients", "100,1000").split(",")) {
+                LocalCluster cluster = new LocalCluster(serverCount, firstPort, options);
+                cluster.up();
+                firstPort += serverCount;
+
+                run(cluster, Integer.parseInt(clients.trim()), threadMode, fileCount, readPercent, duration);
+            }
+
+            // the servers keep listening forever
+            System.exit(0);
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static void run(LocalCluster cluster, int clientCount, ThreadMode threadMode, int fileCount, int readPercent, long duration) throws Exception {
+        List<MessageStream> streams = new ArrayList<>();
+
+        // connections are opened one by one up front, so that the accept backlog of the servers never overflows
+        for (int i = 0; i < clientCount; i++) {
+            ServerInfo serverInfo = cluster.getServerInfo(i % cluster.size());
+            Socket socket = new Socket(serverInfo.getIpAddress(), serverInfo.getPort());
+            socket.setTcpNoDelay(true);
+            streams.add(MessageStream.connect(socket, String.format("Client '%s'", getClientName(i)), MessageStream.Framing.Binary));
+        }
+
+        // every file exists before the clock starts, so that reads find content
+        for (int fileNumber = 0; fileNumber < fileCount; fileNumber++) {
+            request(streams.get(0), getClientName(0), Message.MessageType.ClientWriteRequest, String.format("File%d.txt|%d|seed", fileNumber, fileNumber));
+        }
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        threadBean.resetPeakThreadCount();
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        LongAdder failureCount = new LongAdder();
+        LongAdder failedRequestCount = new LongAdder();
+        CountDownLatch startSignal = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        long[] deadline = new long[1];
+
+        for (int i = 0; i < clientCount; i++) {
+            String clientName = getClientName(i);
+            MessageStream stream = streams.get(i);
+            Thread thread = threadMode.newThread(clientName, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long requestId = fileCount;
+
+                try {
+                    startSignal.await();
+
+                    while (System.nanoTime() - deadline[0] < 0) {
+                        int fileNumber = random.nextInt(fileCount);
+                        long start = System.nanoTime();
+                        Message response;
+
+                        if (random.nextInt(100) < readPercent) {
+                            response = request(stream, clientName, Message.MessageType.ClientReadRequest, String.format("File%d.txt", fileNumber));
+                        }
+                        else {
+                            response = request(stream, clientName, Message.MessageType.ClientWriteRequest, String.format("File%d.txt|%d|%s", fileNumber, requestId++, clientName));
+                        }
+
+                        // like the load generator, failed requests stay out of the latencies and the throughput
+                        if (response.getType() == Message.MessageType.ReadFailureAck || response.getType() == Message.MessageType.WriteFailureAck) {
+                            failedRequestCount.increment();
+                        }
+                        else {
+                            latencies.record(System.nanoTime() - start);
+                        }
+                    }
+                }
+                catch (IOException | InterruptedException e) {
+                    failureCount.increment();
+                }
+            });
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        long start = System.nanoTime();
+        deadline[0] = start + duration * 1_000_000_000L;
+        startSignal.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        for (MessageStream stream : streams) {
+            stream.close();
+        }
+
+        System.out.println(String.format("%8d %12.1f %10.2f %10.2f %10.2f %10.2f %16d%s%s", clientCount, latencies.getCount() / seconds,
+                latencies.getMean() / NANOSECONDS_PER_MILLISECOND,
+                latencies.getValueAtPercentile(50) / NANOSECONDS_PER_MILLISECOND,
+                latencies.getValueAtPercentile(99) / NANOSECONDS_PER_MILLISECOND,
+                latencies.getValueAtPercentile(99.9) / NANOSECONDS_PER_MILLISECOND,
+                threadBean.getPeakThreadCount(),
+                failedRequestCount.sum() == 0 ? "" : String.format(" (%d requests failed)", failedRequestCount.sum()),
+                failureCount.sum() == 0 ? "" : String.format(" (%d clients failed)", failureCount.sum())));
+    }
+
+    /**
+     * Sends the request and waits for its final response, skipping the chunks of a large read.
+     */
+    private static Message request(MessageStream stream, String clientName, Message.MessageType type, String payload) throws IOException {
+        stream.write(new Message(clientName, type, 0, payload));
+
+        Message response;
+
+        do {
+            response = stream.read();
+        }
+        while (response.getType() == Message.MessageType.ReadChunkAck);
+
+        return response;
+    }
+
+    private static String getClientName(int clientNumber) {
+        return String.format("Client%d", clientNumber);
+    }
+}
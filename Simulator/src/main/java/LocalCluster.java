@@ -0,0 +1,202 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Runs a whole cluster of servers inside the current process, on the loopback interface and in a temporary directory.
+ * <p>
+ * With the {@code cluster.links=simulated} option every connection between two nodes (servers, or clients connected
+ * through {@link #getServerInfos(String)}) goes through a {@link SimulatedLink}, so that channels can be delayed,
+ * disrupted or partitioned while the cluster runs.
+ */
+public class LocalCluster {
+    public enum Links {Direct, Simulated}
+
+    private static final long CONNECTION_TIMEOUT = 30000;
+
+    private ArrayList<ServerInfo> serverInfos;
+    private List<ServerNode> serverNodes;
+    private Path directory;
+    private boolean isSimulatingLinks;
+    private ConcurrentHashMap<String, SimulatedLink> links;
+    private long delay;
+
+    public LocalCluster(int size, int firstPort, Options options) throws IOException {
+        this.serverInfos = new ArrayList<>();
+        this.serverNodes = new ArrayList<>();
+        this.directory = Files.createTempDirectory("cluster");
+        this.isSimulatingLinks = options.getEnum("cluster.links", Links.Direct) == Links.Simulated;
+        this.links = new ConcurrentHashMap<>();
+
+        for (int i = 0; i < size; i++) {
+            serverInfos.add(new ServerInfo(String.format("Server%d:127.0.0.1:%d", i, firstPort + i)));
+        }
+
+        for (ServerInfo serverInfo : serverInfos) {
+            ArrayList<ServerInfo> otherServerInfos = getServerInfos(serverInfo.getName());
+
+            String directoryPath = directory.resolve(serverInfo.getName()).toString();
+            serverNodes.add(new ServerNode(serverInfo, otherServerInfos, directoryPath, options));
+        }
+    }
+
+    /**
+     * Starts every server and waits until each of them is connected to all the others.
+     */
+    public void up() throws IOException, InterruptedException {
+        for (ServerNode serverNode : serverNodes) {
+            serverNode.up();
+        }
+
+        long deadline = System.currentTimeMillis() + CONNECTION_TIMEOUT;
+
+        while (!serverNodes.stream().allMatch(ServerNode::isConnectedToAllServers)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException(String.format("Cluster of %d servers fails to connect within %d ms", serverNodes.size(), CONNECTION_TIMEOUT));
+            }
+
+            Thread.sleep(100);
+        }
+    }
+
+    public int size() {
+        return serverInfos.size();
+    }
+
+    public ServerInfo getServerInfo(int serverNumber) {
+        return serverInfos.get(serverNumber);
+    }
+
+    /**
+     * Servers as the given node should connect to them: through a link of its own to each server when links are
+     * simulated, directly otherwise. Leaves out the node itself.
+     */
+    public synchronized ArrayList<ServerInfo> getServerInfos(String nodeName) throws IOException {
+        ArrayList<ServerInfo> nodeServerInfos = new ArrayList<>();
+
+        for (ServerInfo serverInfo : serverInfos) {
+            if (serverInfo.getName().equals(nodeName)) {
+                continue;
+            }
+
+            if (!isSimulatingLinks) {
+                nodeServerInfos.add(serverInfo);
+                continue;
+            }
+
+            String linkName = getLinkName(nodeName, serverInfo.getName());
+            SimulatedLink link = links.get(linkName);
+
+            if (link == null) {
+                link = new SimulatedLink(linkName, serverInfo);
+                link.setDelay(delay);
+                links.put(linkName, link);
+            }
+
+            // same name, so the node cannot tell the link from the server
+            nodeServerInfos.add(new ServerInfo(String.format("%s:127.0.0.1:%d", serverInfo.getName(), link.getPort())));
+        }
+
+        return nodeServerInfos;
+    }
+
+    /**
+     * Delays every byte sent over any link, including links of nodes connecting later, by the given milliseconds, in
+     * each direction.
+     */
+    public synchronized void setDelay(long delay) {
+        checkSimulatingLinks();
+        this.delay = delay;
+
+        for (SimulatedLink link : links.values()) {
+            link.setDelay(delay);
+        }
+    }
+
+    /**
+     * Delays every byte exchanged between the two nodes by the given milliseconds, in each direction.
+     */
+    public void setDelay(String nodeName, String otherNodeName, long delay) {
+        for (SimulatedLink link : getLinks(nodeName, otherNodeName)) {
+            link.setDelay(delay);
+        }
+    }
+
+    /**
+     * Holds back everything exchanged between the two nodes until the channel is restored.
+     */
+    public void setDisrupted(String nodeName, String otherNodeName, boolean isDisrupted) {
+        for (SimulatedLink link : getLinks(nodeName, otherNodeName)) {
+            link.setDisrupted(isDisrupted);
+        }
+    }
+
+    /**
+     * Disrupts (or restores) every channel between a node of the group and a node outside of it.
+     */
+    public void setPartitioned(Collection<String> nodeNames, boolean isPartitioned) {
+        checkSimulatingLinks();
+
+        for (Map.Entry<String, SimulatedLink> entry : links.entrySet()) {
+            String[] ends = entry.getKey().split("\\|");
+
+            if (nodeNames.contains(ends[0]) != nodeNames.contains(ends[1])) {
+                entry.getValue().setDisrupted(isPartitioned);
+            }
+        }
+    }
+
+    public List<String> getServerNames() {
+        return serverInfos.stream().map(ServerInfo::getName).collect(Collectors.toList());
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private void checkSimulatingLinks() {
+        if (!isSimulatingLinks) {
+            throw new IllegalStateException("Links can only be changed with the cluster.links=simulated option");
+        }
+    }
+
+    /**
+     * Links of the channel between the two nodes: the one each of them opened to the other.
+     */
+    private List<SimulatedLink> getLinks(String nodeName, String otherNodeName) {
+        checkSimulatingLinks();
+
+        List<SimulatedLink> channelLinks = new ArrayList<>();
+
+        for (String linkName : new String[]{getLinkName(nodeName, otherNodeName), getLinkName(otherNodeName, nodeName)}) {
+            SimulatedLink link = links.get(linkName);
+
+            if (link != null) {
+                channelLinks.add(link);
+            }
+        }
+
+        if (channelLinks.isEmpty()) {
+            throw new IllegalArgumentException(String.format("No link between %s and %s", nodeName, otherNodeName));
+        }
+
+        return channelLinks;
+    }
+
+    private static String getLinkName(String fromNodeName, String toNodeName) {
+        return String.format("%s|%s", fromNodeName, toNodeName);
+    }
+
+    /**
+     * Number of protocol messages exchanged between the servers so far, heartbeats excluded.
+     */
+    public long getSentMessageCount() {
+        return serverNodes.stream().mapToLong(ServerNode::getSentMessageCount).sum();
+    }
+}
@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Compares the mutual exclusion modes on an in-process cluster: every writer sends its writes to one server (one
+ * replica of the file when {@code placement.replicas} is set), keeping up to {@code inFlight} of them outstanding on
+ * each connection, and the benchmark reports throughput, write latency and protocol messages per write.
+ * <p>
+ * Arguments are {@code key=value} pairs: {@code servers} (comma separated cluster sizes), {@code writers}, {@code files}, {@code writes} (per writer),
+ * {@code inFlight}, {@code modes} (comma separated), {@code firstPort}; any other pair is handed to the servers as an option.
+ */
+public class MutualExclusionBenchmark {
+    public static void main(String[] args) {
+        try {
+            Options options = new Options();
+            options.set("log.level", "off");
+            // large clusters take a while to start listening, especially next to the ones of earlier rounds
+            options.set("connect.attempts", "20");
+
+            for (String arg : args) {
+                options.parse(arg);
+            }
+
+            int writerCount = options.getInt("writers", 10);
+            int fileCount = options.getInt("files", 1);
+            int writesPerWriter = options.getInt("writes", 100);
+            int inFlight = options.getInt("inFlight", 1);
+            int replicationFactor = options.getInt("placement.replicas", 0);
+            int firstPort = options.getInt("firstPort", 9100);
+
+            for (String servers : options.get("servers", "5").split(",")) {
+                int serverCount = Integer.parseInt(servers.trim());
+
+                System.out.println(String.format("%d servers, %d writers, %d file(s), %d writes per writer, %d in flight", serverCount, writerCount, fileCount, writesPerWriter, inFlight));
+                System.out.println(String.format("%-16s %12s %10s %10s %10s %14s %10s", "mode", "writes/s", "mean ms", "p50 ms", "p99 ms", "messages/write", "replicas"));
+
+                for (String mode : options.get("modes", "lamport,ricartAgrawala,maekawa").split(",")) {
+                    options.set("mutex", mode);
+
+                    LocalCluster cluster = new LocalCluster(serverCount, firstPort, options);
+                    cluster.up();
+                    firstPort += serverCount;
+
+                    // the same ring as the servers, since they only accept writes to the files they hold
+                    PlacementRing placementRing = replicationFactor <= 0 ? null : new PlacementRing(cluster.getServerNames(), replicationFactor,
+                            options.getInt("placement.virtualNodes", PlacementRing.DEFAULT_VIRTUAL_NODES));
+
+                    run(mode, cluster, placementRing, writerCount, fileCount, writesPerWriter, inFlight);
+                }
+            }
+
+            // the servers keep listening forever
+            System.exit(0);
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static void run(String mode, LocalCluster cluster, PlacementRing placementRing, int writerCount, int fileCount, int writesPerWriter, int inFlight) throws Exception {
+        long[][] latencies = new long[writerCount][writesPerWriter];
+        List<Thread> writers = new ArrayList<>();
+        List<Exception> failures = new ArrayList<>();
+
+        long messageCountBefore = cluster.getSentMessageCount();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < writerCount; i++) {
+            int writerNumber = i;
+
+            Thread writer = new Thread(() -> {
+                try {
+                    write(cluster, placementRing, writerNumber, fileCount, inFlight, latencies[writerNumber]);
+                }
+                catch (Exception e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+
+            writers.add(writer);
+            writer.start();
+        }
+
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        if (!failures.isEmpty()) {
+            throw failures.get(0);
+        }
+
+        long messageCount = cluster.getSentMessageCount() - messageCountBefore;
+        long[] allLatencies = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        int writeCount = allLatencies.length;
+
+        System.out.println(String.format("%-16s %12.1f %10.2f %10.2f %10.2f %14.2f %10s",
+                mode,
+                writeCount / (elapsed / 1e9),
+                Arrays.stream(allLatencies).average().orElse(0) / 1e6,
+                allLatencies[writeCount / 2] / 1e6,
+                allLatencies[Math.min(writeCount - 1, (int) (writeCount * 0.99))] / 1e6,
+                (double) messageCount / writeCount,
+                compareReplicas(cluster, placementRing, fileCount)));
+    }
+
+    private static void write(LocalCluster cluster, PlacementRing placementRing, int writerNumber, int fileCount, int inFlight, long[] latencies) throws IOException {
+        String name = String.format("Writer%d", writerNumber);
+        Map<String, ServerConnection> connections = new HashMap<>();
+        List<CompletableFuture<Message>> responses = new ArrayList<>();
+
+        for (int i = 0; i < latencies.length; i++) {
+            String fileName = String.format("File%d.txt", (writerNumber + i) % fileCount);
+            List<String> serverNames = placementRing == null ? cluster.getServerNames() : placementRing.getReplicas(fileName);
+            String serverName = serverNames.get(writerNumber % serverNames.size());
+            ServerConnection connection = connections.get(serverName);
+
+            if (connection == null) {
+                ServerInfo server = cluster.getServerInfo(cluster.getServerNames().indexOf(serverName));
+                Socket socket = new Socket(server.getIpAddress(), server.getPort());
+                MessageStream stream = MessageStream.connect(socket, String.format("Client '%s'", name), MessageStream.Framing.Binary);
+                connection = new ServerConnection(serverName, stream, inFlight, new FailureDetector());
+                connections.put(serverName, connection);
+            }
+
+            String payload = String.format("%s|%d|%s message #%d", fileName, i, name, i);
+            int writeNumber = i;
+            long start = System.nanoTime();
+
+            // waits while inFlight writes are outstanding
+            responses.add(connection.request(new Message(name, Message.MessageType.ClientWriteRequest, 0, payload)).whenComplete((response, e) ->
+                    latencies[writeNumber] = System.nanoTime() - start));
+        }
+
+        for (CompletableFuture<Message> future : responses) {
+            Message response = future.join();
+
+            if (response.getType() != Message.MessageType.WriteSuccessAck) {
+                throw new IOException(String.format("%s receives '%s' from %s", name, response, response.getSenderName()));
+            }
+        }
+
+        for (ServerConnection connection : connections.values()) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Returns "identical", "reordered" when every replica holds the same lines but not in the same order,
+     * or "diverged" when some replica misses lines.
+     */
+    private static String compareReplicas(LocalCluster cluster, PlacementRing placementRing, int fileCount) throws IOException {
+        // a write is acknowledged once it is appended locally, give the syncs to the other replicas a moment
+        try {
+            Thread.sleep(500);
+        }
+        catch (InterruptedException ignored) {
+        }
+
+        String result = "identical";
+
+        for (int fileNumber = 0; fileNumber < fileCount; fileNumber++) {
+            List<String> firstReplica = null;
+
+            String fileName = String.format("File%d.txt", fileNumber);
+
+            for (String serverName : placementRing == null ? cluster.getServerNames() : placementRing.getReplicas(fileName)) {
+                Path filePath = cluster.getDirectory().resolve(serverName).resolve(fileName);
+                List<String> replica = Files.exists(filePath) ? Files.readAllLines(filePath) : new ArrayList<>();
+
+                if (firstReplica == null) {
+                    firstReplica = replica;
+                }
+                else if (!new HashSet<>(firstReplica).equals(new HashSet<>(replica))) {
+                    return "diverged";
+                }
+                else if (!firstReplica.equals(replica)) {
+                    result = "reordered";
+                }
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,228 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One-way connection path from a node to a server of a {@link LocalCluster}: a proxy on a loopback port that the node
+ * connects to instead of the server, and that forwards the bytes of every connection in both directions. The link can
+ * hold the bytes back for a fixed delay, or for as long as it is disrupted. Bytes held back are forwarded in order
+ * afterwards, so the channel stays FIFO and reliable and only its timing changes, as in the channel model of the
+ * project: while disrupted, nothing gets across.
+ */
+public class SimulatedLink implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] END_OF_STREAM = new byte[0];
+    private static final long TARGET_START_TIMEOUT = 1000;
+    private static final long TARGET_RETRY_INTERVAL = 50;
+
+    private String name;
+    private String targetAddress;
+    private int targetPort;
+    private ServerSocket serverSocket;
+    private List<Socket> sockets;
+    private volatile long delay;
+    private boolean isDisrupted;
+    private volatile boolean isTargetReached;
+
+    public SimulatedLink(String name, ServerInfo target) throws IOException {
+        this.name = name;
+        this.targetAddress = target.getIpAddress();
+        this.targetPort = target.getPort();
+        this.serverSocket = new ServerSocket(0, 100, InetAddress.getLoopbackAddress());
+        this.sockets = new CopyOnWriteArrayList<>();
+
+        Thread acceptThread = new Thread(this::acceptConnections, String.format("link-%s", name));
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Loopback port to connect to instead of the target's.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Milliseconds every byte spends on the link in each direction.
+     */
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    public synchronized boolean isDisrupted() {
+        return isDisrupted;
+    }
+
+    public synchronized void setDisrupted(boolean isDisrupted) {
+        this.isDisrupted = isDisrupted;
+        notifyAll();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    private void acceptConnections() {
+        try {
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                Socket source = serverSocket.accept();
+
+                // waiting for the target to listen holds up this connection only, not the next ones through the link
+                Thread connectThread = new Thread(() -> connect(source), String.format("link-%s-connect", name));
+                connectThread.setDaemon(true);
+                connectThread.start();
+            }
+        }
+        catch (IOException ignored) {
+            // closed
+        }
+    }
+
+    private void connect(Socket source) {
+        try {
+            Socket target = connectTarget();
+
+            if (target == null) {
+                // the node sees its connection end, which is as close as the link gets to refusing it
+                source.close();
+                return;
+            }
+
+            source.setTcpNoDelay(true);
+            target.setTcpNoDelay(true);
+            sockets.add(source);
+            sockets.add(target);
+
+            forward(source, target);
+            forward(target, source);
+        }
+        catch (IOException | InterruptedException e) {
+            closeQuietly(source);
+        }
+    }
+
+    /**
+     * Connects to the target, or returns null if it refuses. A target never reached through the link yet gets a moment
+     * to start listening: the nodes of a cluster start one after the other, and a node greeting with text framing
+     * expects no answer, so it could not tell that the link dropped its connection before the target was up.
+     */
+    private Socket connectTarget() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + (isTargetReached ? 0 : TARGET_START_TIMEOUT);
+
+        while (true) {
+            try {
+                Socket target = new Socket(targetAddress, targetPort);
+                isTargetReached = true;
+                return target;
+            }
+            catch (IOException e) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return null;
+                }
+
+                Thread.sleep(TARGET_RETRY_INTERVAL);
+            }
+        }
+    }
+
+    /**
+     * Copies the bytes from one socket to the other through a queue: a reader stamps each chunk with the time it
+     * arrived, and a writer sends it once the delay has passed and the link is not disrupted.
+     */
+    private void forward(Socket from, Socket to) throws IOException {
+        InputStream input = from.getInputStream();
+        OutputStream output = to.getOutputStream();
+        LinkedBlockingQueue<Chunk> chunks = new LinkedBlockingQueue<>();
+
+        Thread reader = new Thread(() -> {
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            try {
+                int length;
+
+                while ((length = input.read(buffer)) >= 0) {
+                    byte[] bytes = new byte[length];
+                    System.arraycopy(buffer, 0, bytes, 0, length);
+                    chunks.add(new Chunk(System.nanoTime(), bytes));
+                }
+            }
+            catch (IOException ignored) {
+                // the writer ends the other side once it gets to the end marker
+            }
+
+            chunks.add(new Chunk(System.nanoTime(), END_OF_STREAM));
+        });
+
+        Thread writer = new Thread(() -> {
+            try {
+                //noinspection InfiniteLoopStatement
+                while (true) {
+                    Chunk chunk = chunks.take();
+                    long remaining;
+
+                    while ((remaining = chunk.arrivalTime + TimeUnit.MILLISECONDS.toNanos(delay) - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.sleep(remaining);
+                    }
+
+                    awaitRestored();
+
+                    if (chunk.bytes == END_OF_STREAM) {
+                        to.shutdownOutput();
+                        return;
+                    }
+
+                    output.write(chunk.bytes);
+                    output.flush();
+                }
+            }
+            catch (IOException | InterruptedException e) {
+                closeQuietly(from);
+                closeQuietly(to);
+            }
+        });
+
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+    private synchronized void awaitRestored() throws InterruptedException {
+        while (isDisrupted) {
+            wait();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch (IOException ignored) {
+        }
+    }
+
+    private static class Chunk {
+        private long arrivalTime;
+        private byte[] bytes;
+
+        Chunk(long arrivalTime, byte[] bytes) {
+            this.arrivalTime = arrivalTime;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+/**
+ * Reads a file through fixed-size buffers and hands its content to a consumer in chunks of bounded length, so that
+ * the memory needed does not depend on the size of the file. The content is the same as
+ * {@link FileUtil#getFileContent(String)}: lines (ended by "\n", "\r" or "\r\n") joined with "{newLine}".
+ */
+public class ChunkedFileReader {
+    public interface ChunkConsumer {
+        void accept(String chunk) throws IOException;
+    }
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final String LINE_SEPARATOR = "{newLine}";
+
+    private int fromLine;
+    private int chunkSize;
+    private ChunkConsumer consumer;
+    private StringBuilder chunk;
+    private int lineCount;
+    private boolean isLineOpen;
+    private boolean isAfterCarriageReturn;
+
+    private ChunkedFileReader(int fromLine, int chunkSize, ChunkConsumer consumer) {
+        this.fromLine = fromLine;
+        this.chunkSize = chunkSize;
+        this.consumer = consumer;
+        this.chunk = new StringBuilder(chunkSize);
+    }
+
+    /**
+     * Reads the first byteCount bytes of the file and passes its lines from fromLine on to the consumer, in chunks of
+     * at most chunkSize chars. Returns the number of lines of the file.
+     */
+    public static int read(String fileName, long byteCount, int fromLine, int chunkSize, ChunkConsumer consumer) throws IOException {
+        return read(fileName, 0, byteCount, fromLine, chunkSize, consumer);
+    }
+
+    /**
+     * Reads the bytes of the file from fromByte, which has to be the start of a line (see {@link LineOffsetIndex}), up
+     * to toByte, and passes its lines from fromLine on, counted from fromByte, to the consumer. Returns the number of
+     * lines from fromByte on.
+     */
+    public static int read(String fileName, long fromByte, long toByte, int fromLine, int chunkSize, ChunkConsumer consumer) throws IOException {
+        ChunkedFileReader reader = new ChunkedFileReader(fromLine, chunkSize, consumer);
+        ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName))) {
+            channel.position(fromByte);
+            long remaining = toByte - fromByte;
+
+            // bytes written after toByte was taken may end in the middle of a line, so they are left out
+            while (remaining > 0) {
+                bytes.limit((int) Math.min(bytes.capacity(), bytes.position() + remaining));
+
+                int read = channel.read(bytes);
+                if (read < 0) {
+                    break;
+                }
+
+                remaining -= read;
+                bytes.flip();
+                decoder.decode(bytes, chars, false);
+                reader.consume(chars);
+                bytes.compact();
+            }
+        }
+
+        bytes.flip();
+        decoder.decode(bytes, chars, true);
+        decoder.flush(chars);
+        reader.consume(chars);
+        reader.flush();
+
+        return reader.lineCount;
+    }
+
+    private void consume(CharBuffer chars) throws IOException {
+        chars.flip();
+
+        while (chars.hasRemaining()) {
+            char c = chars.get();
+
+            if (c == '\n' && isAfterCarriageReturn) {
+                isAfterCarriageReturn = false;
+                continue;
+            }
+
+            isAfterCarriageReturn = c == '\r';
+
+            if (!isLineOpen) {
+                startLine();
+            }
+
+            if (c == '\n' || c == '\r') {
+                isLineOpen = false;
+            }
+            else if (lineCount > fromLine) {
+                append(c);
+            }
+        }
+
+        chars.clear();
+    }
+
+    private void startLine() throws IOException {
+        isLineOpen = true;
+        lineCount++;
+
+        if (lineCount > fromLine + 1) {
+            append(LINE_SEPARATOR);
+        }
+    }
+
+    private void append(String text) throws IOException {
+        if (chunk.length() + text.length() > chunkSize) {
+            flush();
+        }
+
+        chunk.append(text);
+    }
+
+    private void append(char c) throws IOException {
+        if (chunk.length() + 1 > chunkSize) {
+            int length = chunk.length();
+
+            // both halves of a surrogate pair go into the same chunk, each chunk is encoded on its own
+            if (Character.isLowSurrogate(c) && length > 0 && Character.isHighSurrogate(chunk.charAt(length - 1))) {
+                char highSurrogate = chunk.charAt(length - 1);
+                chunk.setLength(length - 1);
+                flush();
+                chunk.append(highSurrogate);
+            }
+            else {
+                flush();
+            }
+        }
+
+        chunk.append(c);
+    }
+
+    private void flush() throws IOException {
+        if (chunk.length() > 0) {
+            consumer.accept(chunk.toString());
+            chunk.setLength(0);
+        }
+    }
+}
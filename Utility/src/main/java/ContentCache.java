@@ -0,0 +1,223 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Contents of files as sent to readers (lines joined with "{newLine}"), kept up to date by appending the lines written
+ * to a cached file instead of reading it again. The least recently read files are dropped once the cached contents
+ * take more than the byte budget. Every cached file also indexes where its lines start, so the lines from a given one
+ * on are returned without scanning the content. The cache is guarded by a lock rather than a monitor, so that readers
+ * and writers on virtual threads that contend for it park instead of pinning their carrier threads.
+ */
+public class ContentCache {
+    public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+    private static final String LINE_SEPARATOR = "{newLine}";
+
+    private long budget;
+    private long usedBytes;
+    private LinkedHashMap<String, Entry> entries;
+    private LongAdder hitCount;
+    private LongAdder missCount;
+    private LongAdder evictionCount;
+    private ReentrantLock lock;
+
+    public ContentCache() {
+        this(DEFAULT_BUDGET);
+    }
+
+    public ContentCache(long budget) {
+        this.budget = budget;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.hitCount = new LongAdder();
+        this.missCount = new LongAdder();
+        this.evictionCount = new LongAdder();
+        this.lock = new ReentrantLock();
+    }
+
+    /**
+     * Returns the cached content of the file, or null if it has to be read from disk.
+     */
+    public String get(String fileName) {
+        Slice slice = get(fileName, 0);
+        return slice == null ? null : slice.getContent();
+    }
+
+    /**
+     * Returns the lines of the file from the given one on, or null if the file has to be read from disk.
+     */
+    public Slice get(String fileName, int fromLine) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(fileName);
+
+            if (entry == null) {
+                missCount.increment();
+                return null;
+            }
+
+            hitCount.increment();
+
+            return new Slice(entry.lineCount, entry.getContentFrom(fromLine));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Caches the lines just read from disk. Callers must make sure no append to the file happens in between.
+     */
+    public void put(String fileName, List<String> lines) {
+        lock.lock();
+        try {
+            remove(fileName);
+
+            Entry entry = new Entry();
+
+            for (String line : lines) {
+                entry.append(line);
+            }
+
+            entries.put(fileName, entry);
+            usedBytes += entry.size();
+            evict();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies lines appended to the file, if it is cached.
+     */
+    public void append(String fileName, List<String> lines) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(fileName);
+
+            if (entry == null) {
+                return;
+            }
+
+            usedBytes -= entry.size();
+
+            for (String line : lines) {
+                entry.append(line);
+            }
+
+            usedBytes += entry.size();
+            evict();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    public long getUsedBytes() {
+        lock.lock();
+        try {
+            return usedBytes;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(String fileName) {
+        Entry entry = entries.remove(fileName);
+
+        if (entry != null) {
+            usedBytes -= entry.size();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+
+        // a file bigger than the whole budget ends up evicted as well
+        while (usedBytes > budget && iterator.hasNext()) {
+            usedBytes -= iterator.next().getValue().size();
+            iterator.remove();
+            evictionCount.increment();
+        }
+    }
+
+    /**
+     * Lines of a file from some line on, joined with "{newLine}", and the number of lines the file had at the time.
+     */
+    public static class Slice {
+        private int lineCount;
+        private String content;
+
+        public Slice(int lineCount, String content) {
+            this.lineCount = lineCount;
+            this.content = content;
+        }
+
+        public int getLineCount() {
+            return lineCount;
+        }
+
+        public String getContent() {
+            return content;
+        }
+    }
+
+    private static class Entry {
+        private StringBuilder content = new StringBuilder();
+        private int[] lineStarts = new int[16];
+        private int lineCount;
+        private String snapshot;
+
+        void append(String line) {
+            // an empty file and a file holding one empty line have the same content, so count lines
+            if (lineCount > 0) {
+                content.append(LINE_SEPARATOR);
+            }
+
+            if (lineCount == lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+            }
+
+            lineStarts[lineCount] = content.length();
+            content.append(line);
+            lineCount++;
+            snapshot = null;
+        }
+
+        String getContentFrom(int fromLine) {
+            if (fromLine <= 0) {
+                // readers of the whole file share one String until the next append
+                if (snapshot == null) {
+                    snapshot = content.toString();
+                }
+
+                return snapshot;
+            }
+
+            return fromLine >= lineCount ? "" : content.substring(lineStarts[fromLine]);
+        }
+
+        long size() {
+            // the builder and the snapshot shared by readers hold 2 bytes per char each, the index 4 bytes per line
+            return 4L * content.length() + 4L * lineStarts.length;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class FailureDetector {
+    public static final long DEFAULT_HEARTBEAT_INTERVAL = 500;
+    public static final long DEFAULT_SUSPICION_TIMEOUT = 3000;
+
+    private final long heartbeatInterval;
+    private final long suspicionTimeout;
+    // System.nanoTime() of the last message of every peer not suspected, so that wall-clock adjustments do not matter
+    private final ConcurrentHashMap<String, Long> lastHeardTimes;
+
+    public FailureDetector() {
+        this(DEFAULT_HEARTBEAT_INTERVAL, DEFAULT_SUSPICION_TIMEOUT);
+    }
+
+    public FailureDetector(long heartbeatInterval, long suspicionTimeout) {
+        this.heartbeatInterval = heartbeatInterval;
+        this.suspicionTimeout = suspicionTimeout;
+        this.lastHeardTimes = new ConcurrentHashMap<>();
+    }
+
+    public long getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    /**
+     * Records that the peer has just been heard from (a heartbeat or any other message).
+     */
+    public void heartbeat(String peerName) {
+        lastHeardTimes.put(peerName, System.nanoTime());
+    }
+
+    /**
+     * Marks the peer as suspected right away, e.g. after a failed send.
+     */
+    public void suspect(String peerName) {
+        // a suspected peer is one never heard from, until its next message
+        lastHeardTimes.remove(peerName);
+    }
+
+    public boolean isAlive(String peerName) {
+        Long lastHeardTime = lastHeardTimes.get(peerName);
+        return lastHeardTime != null && System.nanoTime() - lastHeardTime <= TimeUnit.MILLISECONDS.toNanos(suspicionTimeout);
+    }
+}
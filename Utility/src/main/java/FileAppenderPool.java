@@ -0,0 +1,332 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps files open for appending instead of opening and closing them for every line. At most a fixed number of files
+ * stay open; the least recently used one is closed when another one is needed, outside the lock of the pool so that
+ * its final fsync holds up no other file. Lines are encoded into a direct buffer owned by the open file, used under
+ * its lock and handed on to the next file opened once it is closed, so that the number of buffers follows the number
+ * of open files rather than the number of threads, which with a virtual thread per request would be one per append.
+ * Lines are written with as few system calls as the buffer allows. The pool and every open file are guarded by locks
+ * rather than monitors, so that a virtual thread waiting for a write or an fsync of the file does not pin its carrier.
+ * <p>
+ * Durability is configurable: {@link Durability#None} leaves flushing to the operating system,
+ * {@link Durability#Batch} forces every {@link #append(String, List)} to disk before returning, and
+ * {@link Durability#Periodic} forces every file written since the last round once per interval, so that concurrent
+ * writers share one fsync.
+ */
+public class FileAppenderPool implements Closeable {
+    public enum Durability {None, Batch, Periodic}
+
+    public static final int DEFAULT_MAX_OPEN_FILES = 64;
+    public static final long DEFAULT_SYNC_INTERVAL = 100;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private Durability durability;
+    private int maxOpenFiles;
+    private LinkedHashMap<String, Appender> appenders;
+    private List<Appender> evictedAppenders;
+    private ArrayDeque<ByteBuffer> freeBuffers;
+    private ReentrantLock lock;
+    private ScheduledExecutorService syncer;
+
+    public FileAppenderPool() {
+        this(DEFAULT_MAX_OPEN_FILES, Durability.None, DEFAULT_SYNC_INTERVAL);
+    }
+
+    public FileAppenderPool(int maxOpenFiles, Durability durability, long syncInterval) {
+        this.durability = durability;
+        this.maxOpenFiles = maxOpenFiles;
+        this.evictedAppenders = new ArrayList<>();
+        this.freeBuffers = new ArrayDeque<>();
+        this.lock = new ReentrantLock();
+        this.appenders = new LinkedHashMap<String, Appender>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Appender> eldest) {
+                if (size() <= maxOpenFiles) {
+                    return false;
+                }
+
+                // closed by acquire once it has let go of the pool
+                evictedAppenders.add(eldest.getValue());
+                return true;
+            }
+        };
+
+        if (durability == Durability.Periodic) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "file-syncer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.syncer.scheduleWithFixedDelay(this::syncAll, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Appends every line followed by a line separator to the file, creating it if needed.
+     * Appends to the same file are serialized, appends to different files run in parallel.
+     */
+    public void append(String fileName, List<String> lines) throws IOException {
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            Appender appender = acquire(fileName);
+
+            appender.lock.lock();
+            try {
+                // the file may have been closed to make room for another one since it was acquired
+                if (appender.channel == null) {
+                    continue;
+                }
+
+                appender.write(lines);
+
+                if (durability == Durability.Batch) {
+                    appender.channel.force(false);
+                }
+                else if (durability == Durability.Periodic) {
+                    appender.dirty = true;
+                }
+
+                return;
+            }
+            finally {
+                appender.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Forces every file written since the last call to disk.
+     */
+    public void syncAll() {
+        List<Appender> openAppenders;
+
+        lock.lock();
+        try {
+            openAppenders = new ArrayList<>(appenders.values());
+        }
+        finally {
+            lock.unlock();
+        }
+
+        for (Appender appender : openAppenders) {
+            appender.sync();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+
+        List<Appender> openAppenders;
+
+        // an append takes the lock of its file before the one of the pool, so files are closed outside the latter
+        lock.lock();
+        try {
+            openAppenders = new ArrayList<>(appenders.values());
+            openAppenders.addAll(evictedAppenders);
+            appenders.clear();
+            evictedAppenders.clear();
+        }
+        finally {
+            lock.unlock();
+        }
+
+        for (Appender appender : openAppenders) {
+            close(appender);
+        }
+    }
+
+    private Appender acquire(String fileName) throws IOException {
+        Appender appender;
+        List<Appender> appendersToClose;
+
+        lock.lock();
+        try {
+            appender = appenders.get(fileName);
+
+            if (appender == null) {
+                appender = new Appender(FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+                appenders.put(fileName, appender);
+            }
+
+            if (evictedAppenders.isEmpty()) {
+                return appender;
+            }
+
+            appendersToClose = new ArrayList<>(evictedAppenders);
+            evictedAppenders.clear();
+        }
+        finally {
+            lock.unlock();
+        }
+
+        for (Appender evictedAppender : appendersToClose) {
+            close(evictedAppender);
+        }
+
+        return appender;
+    }
+
+    private void close(Appender appender) {
+        ByteBuffer buffer = appender.close();
+
+        if (buffer != null) {
+            lock.lock();
+            try {
+                if (freeBuffers.size() < maxOpenFiles) {
+                    freeBuffers.push(buffer);
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private ByteBuffer takeBuffer() {
+        ByteBuffer buffer;
+
+        lock.lock();
+        try {
+            buffer = freeBuffers.poll();
+        }
+        finally {
+            lock.unlock();
+        }
+
+        return buffer == null ? ByteBuffer.allocateDirect(BUFFER_SIZE) : buffer;
+    }
+
+    private static void encode(FileChannel channel, ByteBuffer buffer, CharsetEncoder encoder, CharBuffer chars) throws IOException {
+        encoder.reset();
+
+        CoderResult result = encoder.encode(chars, buffer, true);
+
+        // a line longer than the buffer is written in several pieces
+        while (result.isOverflow()) {
+            drain(channel, buffer);
+            result = encoder.encode(chars, buffer, true);
+        }
+
+        while (encoder.flush(buffer).isOverflow()) {
+            drain(channel, buffer);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        buffer.clear();
+    }
+
+    private class Appender {
+        private FileChannel channel;
+        private boolean dirty;
+        private ByteBuffer buffer;
+        private CharsetEncoder encoder;
+        private ReentrantLock lock;
+
+        Appender(FileChannel channel) {
+            this.channel = channel;
+            this.lock = new ReentrantLock();
+        }
+
+        /**
+         * Writes the lines. Callers hold the lock of the appender.
+         */
+        void write(List<String> lines) throws IOException {
+            if (buffer == null) {
+                buffer = takeBuffer();
+                // same replacement of unencodable characters as the PrintWriter this pool replaces
+                encoder = StandardCharsets.UTF_8.newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+
+            buffer.clear();
+
+            for (String line : lines) {
+                encode(channel, buffer, encoder, CharBuffer.wrap(line));
+                encode(channel, buffer, encoder, CharBuffer.wrap(LINE_SEPARATOR));
+            }
+
+            drain(channel, buffer);
+        }
+
+        void sync() {
+            lock.lock();
+            try {
+                if (channel == null || !dirty) {
+                    return;
+                }
+
+                channel.force(false);
+                dirty = false;
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Closes the file and returns the buffer it no longer needs, if it had one.
+         */
+        ByteBuffer close() {
+            lock.lock();
+            try {
+                if (channel == null) {
+                    return null;
+                }
+
+                sync();
+
+                try {
+                    channel.close();
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                }
+
+                channel = null;
+                ByteBuffer freeBuffer = buffer;
+                buffer = null;
+
+                return freeBuffer;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+}
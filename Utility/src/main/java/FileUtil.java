@@ -2,6 +2,9 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class FileUtil {
@@ -31,6 +34,18 @@ public class FileUtil {
         return file.exists();
     }
 
+    public static List<String> getFileLines(String fileName) {
+        List<String> lines = new ArrayList<>();
+
+        try (Stream<String> stream = Files.lines(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            lines = stream.collect(Collectors.toList());
+        }
+        catch (IOException ignored) {
+        }
+
+        return lines;
+    }
+
     public static String getFileContent(String fileName) {
         String content = "";
 
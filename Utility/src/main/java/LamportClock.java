@@ -0,0 +1,35 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lamport clock of a node, shared by all of its threads without a lock: every operation is a single compare-and-set
+ * on a 64-bit counter, so connection threads stamping and receiving messages never wait for each other, and the clock
+ * does not wrap around however long the cluster runs.
+ */
+public class LamportClock {
+    public static final long TICK = 1;
+
+    private AtomicLong time;
+
+    public LamportClock() {
+        this.time = new AtomicLong();
+    }
+
+    public long getTime() {
+        return time.get();
+    }
+
+    /**
+     * Advances the clock for a local event, such as sending a message, and returns the new time to stamp it with.
+     */
+    public long tick() {
+        return time.addAndGet(TICK);
+    }
+
+    /**
+     * Moves the clock past the timestamp of a received message, then advances it for the reception itself, and
+     * returns the new time.
+     */
+    public long receive(long timeStamp) {
+        return time.accumulateAndGet(timeStamp, (localTime, receivedTime) -> Math.max(localTime, receivedTime + TICK) + TICK);
+    }
+}
@@ -0,0 +1,204 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Byte offsets at which the lines of a file too large for the {@link ContentCache} start, kept for every checkpoint
+ * interval-th line, so that reading the lines from a given one on starts close to it instead of at the beginning of
+ * the file. The file is scanned once when the index is made; after that, appends extend the index with the bytes they
+ * write and reads catch it up with what it is missing, so that a client polling a growing file costs what was
+ * appended since its last read, not the size of the file. Lines end the way {@link ChunkedFileReader} ends them: "\n",
+ * "\r" or "\r\n". Neither byte occurs inside a multi-byte UTF-8 sequence, so lines are found without decoding.
+ */
+public class LineOffsetIndex {
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1024;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private int checkpointInterval;
+    private long[] checkpoints;
+    private int checkpointCount;
+    private long byteCount;
+    private int lineCount;
+    private boolean isLineOpen;
+    private boolean isAfterCarriageReturn;
+    private ReentrantLock lock;
+
+    public LineOffsetIndex() {
+        this(DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    public LineOffsetIndex(int checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+        this.checkpoints = new long[16];
+        this.lock = new ReentrantLock();
+    }
+
+    /**
+     * Indexes the bytes of the file up to byteCount that are not indexed yet. A file shorter than the index was
+     * replaced, so it is indexed again from the start.
+     */
+    public void catchUp(String fileName, long byteCount) throws IOException {
+        lock.lock();
+        try {
+            if (this.byteCount > byteCount) {
+                clear();
+            }
+
+            if (this.byteCount == byteCount) {
+                return;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+            try (FileChannel channel = FileChannel.open(Paths.get(fileName))) {
+                channel.position(this.byteCount);
+
+                while (this.byteCount < byteCount) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), byteCount - this.byteCount));
+
+                    if (channel.read(buffer) < 0) {
+                        break;
+                    }
+
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        consume(buffer.get());
+                    }
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Indexes lines just appended to the end of the file the way {@link FileAppenderPool} writes them. Callers must
+     * make sure the index covered the whole file before the append.
+     */
+    public void append(List<String> lines) {
+        lock.lock();
+        try {
+            for (String line : lines) {
+                // same replacement of unencodable characters as the encoder of the appender, so the byte counts match
+                for (byte b : line.getBytes(StandardCharsets.UTF_8)) {
+                    consume(b);
+                }
+
+                for (int i = 0; i < LINE_SEPARATOR.length(); i++) {
+                    consume((byte) LINE_SEPARATOR.charAt(i));
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the last checkpoint at or before the given line, the start of the file if there is none.
+     */
+    public Checkpoint getCheckpoint(int line) {
+        lock.lock();
+        try {
+            if (checkpointCount == 0) {
+                return new Checkpoint(0, 0);
+            }
+
+            int index = Math.min(Math.max(line, 0) / checkpointInterval, checkpointCount - 1);
+
+            return new Checkpoint(index * checkpointInterval, checkpoints[index]);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getByteCount() {
+        lock.lock();
+        try {
+            return byteCount;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLineCount() {
+        lock.lock();
+        try {
+            return lineCount;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void consume(byte b) {
+        if (b == '\n' && isAfterCarriageReturn) {
+            isAfterCarriageReturn = false;
+            byteCount++;
+            return;
+        }
+
+        isAfterCarriageReturn = b == '\r';
+
+        if (!isLineOpen) {
+            isLineOpen = true;
+
+            if (lineCount % checkpointInterval == 0) {
+                addCheckpoint(byteCount);
+            }
+
+            lineCount++;
+        }
+
+        if (b == '\n' || b == '\r') {
+            isLineOpen = false;
+        }
+
+        byteCount++;
+    }
+
+    private void addCheckpoint(long offset) {
+        if (checkpointCount == checkpoints.length) {
+            checkpoints = Arrays.copyOf(checkpoints, checkpointCount * 2);
+        }
+
+        checkpoints[checkpointCount++] = offset;
+    }
+
+    private void clear() {
+        checkpointCount = 0;
+        byteCount = 0;
+        lineCount = 0;
+        isLineOpen = false;
+        isAfterCarriageReturn = false;
+    }
+
+    public static class Checkpoint {
+        private int line;
+        private long offset;
+
+        public Checkpoint(int line, long offset) {
+            this.line = line;
+            this.offset = offset;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+    }
+}
@@ -1,28 +1,396 @@
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
 
+/**
+ * Prints log lines from a background thread, so that callers never wait for the console. The thread and the shutdown
+ * hook printing what is left at exit are shared by every logger of the process and only started with the first one
+ * that logs at all, so a process running many nodes still has one of each. Messages are either plain
+ * strings, {@link String#format(String, Object...)} templates whose arguments are only formatted by the background
+ * thread, or suppliers that are only called when the level is enabled. Nothing is built for a disabled level.
+ * <p>
+ * Every logger has a ring of a bounded number of waiting lines, allocated with the logger and reused, so that logging
+ * allocates nothing but the array of a call with more than three arguments. When it is full, callers either wait for
+ * room ({@link OverflowPolicy#Block}) or the line is dropped and counted ({@link OverflowPolicy#Drop}); the number of
+ * dropped lines is printed once there is room again. Arguments are formatted after the call returns, so they must not
+ * change afterwards.
+ */
 public class Logger {
-    private SimpleDateFormat dateTimeFormat = new SimpleDateFormat("yyyy-MM-dd 'at' HH:mm:ss.SSS z");
-    private LogLevel level;
+    public enum LogLevel {Debug, Release, Off}
+
+    public enum OverflowPolicy {Block, Drop}
 
-    public enum LogLevel {Debug, Release}
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd 'at' HH:mm:ss.SSS z").withZone(ZoneId.systemDefault());
+    private static final long FLUSH_TIMEOUT = 1000;
+
+    private LogLevel level;
+    private OverflowPolicy overflowPolicy;
+    private Record[] records;
+    // records[head % length] is the oldest line not printed yet, records[tail % length] the next one to fill
+    private long head;
+    private long tail;
+    private ReentrantLock lock;
+    private Condition notFull;
+    // set while the logger waits for the writer or is being written, so that it is handed to the writer once
+    private AtomicBoolean isScheduled;
+    private AtomicLong droppedCount;
 
     public Logger() {
         this(LogLevel.Release);
     }
 
     public Logger(LogLevel level) {
+        this(level, DEFAULT_BUFFER_SIZE, OverflowPolicy.Block);
+    }
+
+    /**
+     * Reads the {@code log.level}, {@code log.buffer} and {@code log.overflow} options.
+     */
+    public Logger(Options options) {
+        this(options.getEnum("log.level", LogLevel.Release),
+                options.getInt("log.buffer", DEFAULT_BUFFER_SIZE),
+                options.getEnum("log.overflow", OverflowPolicy.Block));
+    }
+
+    public Logger(LogLevel level, int bufferSize, OverflowPolicy overflowPolicy) {
         this.level = level;
+        this.overflowPolicy = overflowPolicy;
+        this.lock = new ReentrantLock();
+        this.notFull = lock.newCondition();
+        this.isScheduled = new AtomicBoolean();
+        this.droppedCount = new AtomicLong();
+        this.records = new Record[level == LogLevel.Off ? 0 : bufferSize];
+
+        for (int i = 0; i < records.length; i++) {
+            records[i] = new Record();
+        }
+    }
+
+    public boolean isDebugEnabled() {
+        return level == LogLevel.Debug;
     }
 
     public void debug(String message) {
-        if (level == LogLevel.Debug) {
-            log(message);
+        if (isDebugEnabled()) {
+            enqueue(message, 0, null, null, null, null);
+        }
+    }
+
+    /**
+     * Logs the template at the debug level. Like every template method, it formats the arguments on the writer thread:
+     * an argument changed after the call may be printed as it is then, not as it was when logged.
+     */
+    public void debug(String format, Object arg) {
+        if (isDebugEnabled()) {
+            enqueue(format, 1, arg, null, null, null);
+        }
+    }
+
+    public void debug(String format, Object arg1, Object arg2) {
+        if (isDebugEnabled()) {
+            enqueue(format, 2, arg1, arg2, null, null);
+        }
+    }
+
+    public void debug(String format, Object arg1, Object arg2, Object arg3) {
+        if (isDebugEnabled()) {
+            enqueue(format, 3, arg1, arg2, arg3, null);
+        }
+    }
+
+    public void debug(String format, Object... args) {
+        if (isDebugEnabled()) {
+            enqueue(format, -1, null, null, null, args);
+        }
+    }
+
+    public void debug(Supplier<String> message) {
+        if (isDebugEnabled()) {
+            enqueue(message.get(), 0, null, null, null, null);
         }
     }
 
     public void log(String message) {
-        Date now = new Date(System.currentTimeMillis());
-        System.out.println(String.format("> %s at time: %s", message, dateTimeFormat.format(now)));
+        if (level != LogLevel.Off) {
+            enqueue(message, 0, null, null, null, null);
+        }
+    }
+
+    /**
+     * Logs the template. Like every template method, it formats the arguments on the writer thread: an argument
+     * changed after the call may be printed as it is then, not as it was when logged.
+     */
+    public void log(String format, Object arg) {
+        if (level != LogLevel.Off) {
+            enqueue(format, 1, arg, null, null, null);
+        }
+    }
+
+    public void log(String format, Object arg1, Object arg2) {
+        if (level != LogLevel.Off) {
+            enqueue(format, 2, arg1, arg2, null, null);
+        }
+    }
+
+    public void log(String format, Object arg1, Object arg2, Object arg3) {
+        if (level != LogLevel.Off) {
+            enqueue(format, 3, arg1, arg2, arg3, null);
+        }
+    }
+
+    public void log(String format, Object... args) {
+        if (level != LogLevel.Off) {
+            enqueue(format, -1, null, null, null, args);
+        }
+    }
+
+    public void log(Supplier<String> message) {
+        if (level != LogLevel.Off) {
+            enqueue(message.get(), 0, null, null, null, null);
+        }
+    }
+
+    /**
+     * Waits (up to a second) until every line logged so far is printed.
+     */
+    public void flush() {
+        awaitPrinted(this::isEmpty);
+    }
+
+    private void enqueue(String format, int argCount, Object arg1, Object arg2, Object arg3, Object[] args) {
+        lock.lock();
+        try {
+            while (tail - head == records.length) {
+                if (overflowPolicy == OverflowPolicy.Drop) {
+                    droppedCount.incrementAndGet();
+                    return;
+                }
+
+                try {
+                    notFull.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+
+            records[(int) (tail % records.length)].set(System.currentTimeMillis(), format, argCount, arg1, arg2, arg3, args);
+            tail++;
+        }
+        finally {
+            lock.unlock();
+        }
+
+        Writer.INSTANCE.pendingCount.incrementAndGet();
+
+        if (isScheduled.compareAndSet(false, true)) {
+            Writer.INSTANCE.schedule(this);
+        }
+    }
+
+    private boolean isEmpty() {
+        lock.lock();
+        try {
+            return head == tail;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends the lines waiting in the ring to the text and returns the position up to which they were taken. Only
+     * the writer calls this; callers never touch the records between head and tail, so they are read unlocked.
+     */
+    private long appendLines(StringBuilder text) {
+        long from;
+        long to;
+
+        lock.lock();
+        try {
+            from = head;
+            to = tail;
+        }
+        finally {
+            lock.unlock();
+        }
+
+        // the lines dropped are reported ahead of the next line that made it
+        long dropped = droppedCount.getAndSet(0);
+        if (dropped > 0) {
+            text.append("> ").append(dropped).append(" log lines dropped").append(System.lineSeparator());
+        }
+
+        for (long position = from; position < to; position++) {
+            Record record = records[(int) (position % records.length)];
+            text.append("> ").append(record.format()).append(" at time: ").append(DATE_TIME_FORMAT.format(Instant.ofEpochMilli(record.time)))
+                    .append(System.lineSeparator());
+            record.clear();
+        }
+
+        return to;
+    }
+
+    /**
+     * Frees the ring up to the given position once its lines are printed, and hands the logger back to the writer if
+     * lines came in meanwhile.
+     */
+    private int release(long to) {
+        int printedCount;
+
+        lock.lock();
+        try {
+            printedCount = (int) (to - head);
+            head = to;
+            notFull.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+
+        isScheduled.set(false);
+
+        if (!isEmpty() && isScheduled.compareAndSet(false, true)) {
+            Writer.INSTANCE.schedule(this);
+        }
+
+        return printedCount;
+    }
+
+    private static void awaitPrinted(BooleanSupplier isPrinted) {
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT;
+
+        while (!isPrinted.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(1);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * The thread printing the lines of every logger, started when the class is first used. A logger is handed to it
+     * when a line comes into its empty ring, not for every line.
+     */
+    private static class Writer {
+        private static final Writer INSTANCE = new Writer();
+
+        private LinkedBlockingQueue<Logger> scheduledLoggers;
+        private AtomicInteger pendingCount;
+
+        Writer() {
+            this.scheduledLoggers = new LinkedBlockingQueue<>();
+            this.pendingCount = new AtomicInteger();
+
+            Thread writerThread = new Thread(this::writeLines, "logger");
+            writerThread.setDaemon(true);
+            writerThread.start();
+
+            // the writer is a daemon, lines still waiting when the process exits are printed by the hook
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> awaitPrinted(() -> pendingCount.get() == 0), "logger-flush"));
+        }
+
+        void schedule(Logger logger) {
+            scheduledLoggers.add(logger);
+        }
+
+        private void writeLines() {
+            List<Logger> batch = new ArrayList<>();
+            List<Long> positions = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                try {
+                    batch.add(scheduledLoggers.take());
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+
+                // whatever piled up meanwhile goes out in the same write
+                scheduledLoggers.drainTo(batch);
+
+                for (Logger logger : batch) {
+                    positions.add(logger.appendLines(text));
+                }
+
+                System.out.print(text);
+                System.out.flush();
+
+                for (int i = 0; i < batch.size(); i++) {
+                    pendingCount.addAndGet(-batch.get(i).release(positions.get(i)));
+                }
+
+                batch.clear();
+                positions.clear();
+                text.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * A slot of the ring, filled by a caller and cleared by the writer once printed.
+     */
+    private static class Record {
+        private long time;
+        private String format;
+        // 0 for a plain message, -1 if the arguments are in args
+        private int argCount;
+        private Object arg1;
+        private Object arg2;
+        private Object arg3;
+        private Object[] args;
+
+        void set(long time, String format, int argCount, Object arg1, Object arg2, Object arg3, Object[] args) {
+            this.time = time;
+            this.format = format;
+            this.argCount = argCount;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+            this.arg3 = arg3;
+            this.args = args;
+        }
+
+        void clear() {
+            set(0, null, 0, null, null, null, null);
+        }
+
+        String format() {
+            try {
+                switch (argCount) {
+                    case 0:
+                        return format;
+                    case 1:
+                        return String.format(format, arg1);
+                    case 2:
+                        return String.format(format, arg1, arg2);
+                    case 3:
+                        return String.format(format, arg1, arg2, arg3);
+                    default:
+                        return args == null ? format : String.format(format, args);
+                }
+            }
+            catch (IllegalFormatException e) {
+                return format;
+            }
+        }
     }
 }
@@ -1,5 +1,3 @@
-import java.util.StringTokenizer;
-
 public class Message implements Comparable<Message> {
 
     public enum MessageType {
@@ -12,36 +10,67 @@ public class Message implements Comparable<Message> {
         ClientWriteRequest,
         ClientReadRequest,
         ReadSuccessAck,
-        ReadFailureAck
+        ReadFailureAck,
+        Heartbeat,
+        WriteInquireRequest,
+        WriteYieldResponse,
+        WriteFailedResponse,
+        ReadChunkAck
     }
 
     private String senderName;
-    private int timeStamp;
+    private long timeStamp;
     private String payload;
     private MessageType type;
+    private String fileName;
+    private String data;
+    private long correlationId;
+
+    public Message(String senderName, MessageType type, long timeStamp, String payload) {
+        this(senderName, type, timeStamp, payload, 0);
+    }
 
-    public Message(String senderName, MessageType type, int timeStamp, String payload) {
+    /**
+     * A non-zero correlation id matches a client request with the responses of the server, which copies it over.
+     * In text form it follows the type as "type#correlationId".
+     */
+    public Message(String senderName, MessageType type, long timeStamp, String payload, long correlationId) {
         this.senderName = senderName;
         this.timeStamp = timeStamp;
         this.payload = payload;
         this.type = type;
+        this.correlationId = correlationId;
     }
 
     public Message(String messageAsString) {
-        StringTokenizer tokenizer = new StringTokenizer(messageAsString, "|");
-        senderName = tokenizer.nextToken();
-        type = MessageType.valueOf(tokenizer.nextToken());
-        timeStamp = Integer.parseInt(tokenizer.nextToken());
-
-        StringBuilder sb = new StringBuilder();
-        while(tokenizer.hasMoreTokens()) {
-            sb.append(tokenizer.nextToken());
-
-            if(tokenizer.hasMoreTokens()) {
-                sb.append("|");
-            }
+        int typeStart = messageAsString.indexOf('|') + 1;
+        int timeStampStart = messageAsString.indexOf('|', typeStart) + 1;
+        int payloadStart = messageAsString.indexOf('|', timeStampStart) + 1;
+
+        if (typeStart == 0 || timeStampStart == 0) {
+            throw new IllegalArgumentException(String.format("Malformed message '%s'", messageAsString));
+        }
+
+        senderName = messageAsString.substring(0, typeStart - 1);
+
+        String typeAsString = messageAsString.substring(typeStart, timeStampStart - 1);
+        int correlationIdStart = typeAsString.indexOf('#') + 1;
+
+        if (correlationIdStart > 0) {
+            correlationId = Long.parseLong(typeAsString.substring(correlationIdStart));
+            typeAsString = typeAsString.substring(0, correlationIdStart - 1);
+        }
+
+        type = MessageType.valueOf(typeAsString);
+
+        if (payloadStart == 0) {
+            timeStamp = Long.parseLong(messageAsString.substring(timeStampStart));
+            payload = "";
+        }
+        else {
+            timeStamp = Long.parseLong(messageAsString.substring(timeStampStart, payloadStart - 1));
+            payload = messageAsString.substring(payloadStart);
         }
-        payload = sb.toString();
     }
 
     public String getSenderName() {
@@ -52,7 +81,7 @@ public class Message implements Comparable<Message> {
         return type;
     }
 
-    public int getTimeStamp() {
+    public long getTimeStamp() {
         return timeStamp;
     }
 
@@ -60,23 +89,42 @@ public class Message implements Comparable<Message> {
         return payload;
     }
 
+    public long getCorrelationId() {
+        return correlationId;
+    }
+
     public String getFileNameFromPayload() {
-        return payload.split("\\|")[0];
+        if (fileName == null) {
+            parsePayload();
+        }
+
+        return fileName;
     }
 
     public String getDataFromPayload() {
-        String data = "";
-
-        if(payload.contains("|")) {
-            data = payload.substring(payload.indexOf('|') + 1);
+        if (data == null) {
+            parsePayload();
         }
 
         return data;
     }
 
+    private void parsePayload() {
+        int separatorIndex = payload.indexOf('|');
+
+        if (separatorIndex < 0) {
+            data = "";
+            fileName = payload;
+        }
+        else {
+            data = payload.substring(separatorIndex + 1);
+            fileName = payload.substring(0, separatorIndex);
+        }
+    }
+
     @Override
     public int compareTo(Message o) {
-        int result = Integer.compare(this.timeStamp, o.timeStamp);
+        int result = Long.compare(this.timeStamp, o.timeStamp);
 
         if(result == 0) {
             result = this.senderName.compareTo(o.senderName);
@@ -87,6 +135,18 @@ public class Message implements Comparable<Message> {
 
     @Override
     public String toString() {
-        return String.format("%s|%s|%d|%s", senderName, type.toString(), timeStamp, payload);
+        StringBuilder builder = new StringBuilder(senderName.length() + payload.length() + 48)
+                .append(senderName).append('|')
+                .append(type.name());
+
+        if (correlationId != 0) {
+            builder.append('#').append(correlationId);
+        }
+
+        return builder
+                .append('|')
+                .append(timeStamp).append('|')
+                .append(payload)
+                .toString();
     }
 }
@@ -0,0 +1,111 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Binary encoding of a {@link Message}: sender id, type byte, varint timestamp and the raw UTF-8 payload.
+ * The high bit of the type byte tells that a varint correlation id follows it.
+ * Sender names are interned per connection: the first message of a sender carries its name next to a new id,
+ * later ones only the id. An instance therefore encodes (or decodes) exactly one direction of one connection.
+ */
+public class MessageCodec {
+    private static final Message.MessageType[] MESSAGE_TYPES = Message.MessageType.values();
+    private static final int CORRELATION_ID_FLAG = 0x80;
+
+    private HashMap<String, Integer> senderIds;
+    private ArrayList<String> senderNames;
+
+    public MessageCodec() {
+        this.senderIds = new HashMap<>();
+        this.senderNames = new ArrayList<>();
+    }
+
+    public byte[] encode(Message message) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(32 + message.getPayload().length());
+        Integer senderId = senderIds.get(message.getSenderName());
+
+        if (senderId == null) {
+            byte[] senderName = message.getSenderName().getBytes(StandardCharsets.UTF_8);
+
+            senderId = senderIds.size();
+            senderIds.put(message.getSenderName(), senderId);
+            writeVarLong(body, senderId);
+            writeVarLong(body, senderName.length);
+            body.write(senderName, 0, senderName.length);
+        }
+        else {
+            writeVarLong(body, senderId);
+        }
+
+        if (message.getCorrelationId() == 0) {
+            body.write(message.getType().ordinal());
+        }
+        else {
+            body.write(message.getType().ordinal() | CORRELATION_ID_FLAG);
+            writeVarLong(body, message.getCorrelationId());
+        }
+
+        writeVarLong(body, message.getTimeStamp());
+
+        byte[] payload = message.getPayload().getBytes(StandardCharsets.UTF_8);
+        body.write(payload, 0, payload.length);
+
+        return body.toByteArray();
+    }
+
+    public Message decode(ByteBuffer body) {
+        try {
+            int senderId = (int) readVarLong(body);
+            String senderName;
+
+            if (senderId == senderNames.size()) {
+                byte[] name = new byte[(int) readVarLong(body)];
+                body.get(name);
+                senderName = new String(name, StandardCharsets.UTF_8);
+                senderNames.add(senderName);
+            }
+            else {
+                senderName = senderNames.get(senderId);
+            }
+
+            int typeByte = body.get() & 0xFF;
+            Message.MessageType type = MESSAGE_TYPES[typeByte & ~CORRELATION_ID_FLAG];
+            long correlationId = (typeByte & CORRELATION_ID_FLAG) == 0 ? 0 : readVarLong(body);
+            long timeStamp = readVarLong(body);
+            String payload = new String(body.array(), body.arrayOffset() + body.position(), body.remaining(), StandardCharsets.UTF_8);
+            body.position(body.limit());
+
+            return new Message(senderName, type, timeStamp, payload, correlationId);
+        }
+        catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed binary message", e);
+        }
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reads and writes messages on a socket using the framing agreed on during the "Server"/"Client" greeting.
+ * Text framing is the original writeUTF of {@link Message#toString()}, limited to 64 KB per message.
+ * Binary framing is a 4 byte length followed by the {@link MessageCodec} body.
+ * A node that wants binary framing appends {@link #BINARY_PROPOSAL} to its greeting, and the accepting node always
+ * answers a proposal with the framing it prefers. An accepted binary answer is confirmed by sending
+ * {@link #BINARY_PROPOSAL} back before the first binary frame, and the accepting node only switches once it reads the
+ * confirmation, so both sides switch or neither does. Nodes that do not know about the proposal never answer, so
+ * after {@link #HANDSHAKE_TIMEOUT} ms the connecting node keeps using text framing without confirming; should the
+ * answer only be late, it is skipped when it arrives, and the accepting node, reading a message where the confirmation
+ * would be, stays on text framing too. An accepted stream holds its writes back until that first read.
+ * <p>
+ * Writes from several threads are serialized by a lock rather than a monitor, so that a virtual thread blocked on a
+ * slow socket gives its carrier thread back.
+ */
+public class MessageStream implements Closeable {
+    public enum Framing {Text, Binary}
+
+    public static final String BINARY_PROPOSAL = "framing=binary";
+    public static final String TEXT_ANSWER = "framing=text";
+    public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    private static final int HANDSHAKE_TIMEOUT = 2000;
+
+    private String greeting;
+    private Framing framing;
+    private DataInputStream dis;
+    private DataOutputStream dos;
+    private MessageCodec encoder;
+    private MessageCodec decoder;
+    private ReentrantLock writeLock;
+    private Condition framingSettled;
+    private boolean isConfirmationPending;
+    private boolean isAnswerPending;
+
+    public MessageStream(InputStream inputStream, OutputStream outputStream, Framing framing, String greeting) {
+        this.dis = new DataInputStream(new BufferedInputStream(inputStream));
+        this.dos = new DataOutputStream(new BufferedOutputStream(outputStream));
+        this.framing = framing;
+        this.greeting = greeting;
+        this.encoder = new MessageCodec();
+        this.decoder = new MessageCodec();
+        this.writeLock = new ReentrantLock();
+        this.framingSettled = writeLock.newCondition();
+    }
+
+    /**
+     * Sends the greeting on a newly opened socket and agrees on the framing with the accepting node.
+     */
+    public static MessageStream connect(Socket socket, String greeting, Framing preferredFraming) throws IOException {
+        MessageStream stream = new MessageStream(socket.getInputStream(), socket.getOutputStream(), Framing.Text, greeting);
+
+        if (preferredFraming == Framing.Text) {
+            stream.writeText(greeting);
+            return stream;
+        }
+
+        stream.writeText(String.format("%s %s", greeting, BINARY_PROPOSAL));
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+
+        try {
+            if (stream.dis.readUTF().equals(BINARY_PROPOSAL)) {
+                stream.writeText(BINARY_PROPOSAL);
+                stream.framing = Framing.Binary;
+            }
+        }
+        catch (SocketTimeoutException e) {
+            stream.isAnswerPending = true;
+        }
+        finally {
+            socket.setSoTimeout(0);
+        }
+
+        return stream;
+    }
+
+    /**
+     * Reads the greeting of a newly accepted socket and answers a framing proposal if there is one.
+     */
+    public static MessageStream accept(Socket socket, Framing preferredFraming) throws IOException {
+        MessageStream stream = new MessageStream(socket.getInputStream(), socket.getOutputStream(), Framing.Text, null);
+        String greeting = stream.dis.readUTF();
+
+        if (greeting.endsWith(BINARY_PROPOSAL)) {
+            greeting = greeting.substring(0, greeting.length() - BINARY_PROPOSAL.length()).trim();
+
+            if (preferredFraming == Framing.Binary) {
+                stream.writeText(BINARY_PROPOSAL);
+                stream.isConfirmationPending = true;
+            }
+            else {
+                stream.writeText(TEXT_ANSWER);
+            }
+        }
+
+        stream.greeting = greeting;
+
+        return stream;
+    }
+
+    public String getGreeting() {
+        return greeting;
+    }
+
+    public Framing getFraming() {
+        return framing;
+    }
+
+    public void write(Message message) throws IOException {
+        writeLock.lock();
+        try {
+            while (isConfirmationPending) {
+                framingSettled.awaitUninterruptibly();
+            }
+
+            if (framing != Framing.Binary) {
+                writeText(message.toString());
+                return;
+            }
+
+            byte[] body = encoder.encode(message);
+            dos.writeInt(body.length);
+            dos.write(body);
+            dos.flush();
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    public Message read() throws IOException {
+        if (isConfirmationPending) {
+            String text = dis.readUTF();
+
+            writeLock.lock();
+            try {
+                isConfirmationPending = false;
+                framing = text.equals(BINARY_PROPOSAL) ? Framing.Binary : Framing.Text;
+                framingSettled.signalAll();
+            }
+            finally {
+                writeLock.unlock();
+            }
+
+            if (framing == Framing.Text) {
+                // the connecting node gave up on the answer before it came
+                return new Message(text);
+            }
+        }
+
+        if (framing == Framing.Binary) {
+            int length = dis.readInt();
+
+            if (length < 0 || length > MAX_FRAME_SIZE) {
+                throw new IOException(String.format("Invalid frame length %d", length));
+            }
+
+            byte[] body = new byte[length];
+            dis.readFully(body);
+
+            return decoder.decode(ByteBuffer.wrap(body));
+        }
+
+        String text = dis.readUTF();
+
+        if (isAnswerPending) {
+            isAnswerPending = false;
+
+            // an answer that came after the handshake timeout, which the accepting node does not act on unconfirmed
+            if (text.equals(BINARY_PROPOSAL) || text.equals(TEXT_ANSWER)) {
+                text = dis.readUTF();
+            }
+        }
+
+        return new Message(text);
+    }
+
+    private void writeText(String text) throws IOException {
+        writeLock.lock();
+        try {
+            dos.writeUTF(text);
+            dos.flush();
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        dis.close();
+        dos.close();
+    }
+}
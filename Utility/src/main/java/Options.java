@@ -0,0 +1,75 @@
+import java.util.Properties;
+
+public class Options {
+    private Properties properties;
+
+    public Options() {
+        this.properties = new Properties();
+    }
+
+    /**
+     * Parses one 'key=value' line of a configuration file. Blank lines are ignored.
+     */
+    public void parse(String line) {
+        if (line == null || line.trim().isEmpty()) {
+            return;
+        }
+
+        int separatorIndex = line.indexOf('=');
+
+        if (separatorIndex <= 0) {
+            throw new IllegalArgumentException(String.format("Option '%s' is not in 'key=value' format", line));
+        }
+
+        set(line.substring(0, separatorIndex).trim(), line.substring(separatorIndex + 1).trim());
+    }
+
+    public void set(String key, String value) {
+        properties.setProperty(key, value);
+    }
+
+    public String get(String key, String defaultValue) {
+        return properties.getProperty(key, defaultValue);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    public <T extends Enum<T>> T getEnum(String key, T defaultValue) {
+        String value = properties.getProperty(key);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        for (T constant : defaultValue.getDeclaringClass().getEnumConstants()) {
+            if (constant.name().equalsIgnoreCase(value)) {
+                return constant;
+            }
+        }
+
+        throw new IllegalArgumentException(String.format("Option '%s' has unknown value '%s'", key, value));
+    }
+
+    @Override
+    public String toString() {
+        return properties.toString();
+    }
+}
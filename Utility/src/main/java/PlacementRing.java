@@ -0,0 +1,106 @@
+import java.util.*;
+
+/**
+ * Consistent-hashing ring that places every file on a fixed number of servers. Each server owns a number of virtual
+ * nodes spread over a 64-bit ring, and a file is stored on the owners of the first virtual nodes that follow its hash,
+ * skipping servers already picked. Adding or removing a server therefore only moves the files next to its virtual
+ * nodes. The ring only depends on the server names, so every client and server configured with the same servers and
+ * options computes the same placement.
+ * <p>
+ * The replica list of every virtual node is computed up front, so a lookup is a hash and a binary search and does
+ * not allocate.
+ */
+public class PlacementRing {
+    public static final int DEFAULT_REPLICATION_FACTOR = 3;
+    public static final int DEFAULT_VIRTUAL_NODES = 64;
+
+    private long[] points;
+    private List<List<String>> replicasByPoint;
+
+    public PlacementRing(Collection<String> serverNames) {
+        this(serverNames, DEFAULT_REPLICATION_FACTOR, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public PlacementRing(Collection<String> serverNames, int replicationFactor, int virtualNodes) {
+        if (serverNames.isEmpty()) {
+            throw new IllegalArgumentException("A placement ring needs at least one server");
+        }
+
+        List<String> sortedNames = new ArrayList<>(new TreeSet<>(serverNames));
+        int replicaCount = Math.min(replicationFactor, sortedNames.size());
+        List<Point> ring = new ArrayList<>();
+
+        for (String serverName : sortedNames) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.add(new Point(hash(String.format("%s#%d", serverName, i)), serverName));
+            }
+        }
+
+        // ties are broken by name, so the order does not depend on the order servers were configured in
+        ring.sort(Comparator.comparingLong((Point point) -> point.hash).thenComparing(point -> point.serverName));
+
+        this.points = new long[ring.size()];
+        this.replicasByPoint = new ArrayList<>(ring.size());
+
+        for (int i = 0; i < ring.size(); i++) {
+            points[i] = ring.get(i).hash;
+
+            List<String> replicas = new ArrayList<>(replicaCount);
+
+            for (int j = i; replicas.size() < replicaCount; j = (j + 1) % ring.size()) {
+                String serverName = ring.get(j).serverName;
+
+                if (!replicas.contains(serverName)) {
+                    replicas.add(serverName);
+                }
+            }
+
+            replicasByPoint.add(Collections.unmodifiableList(replicas));
+        }
+    }
+
+    /**
+     * Servers holding the object, the first one being the owner of the next virtual node on the ring.
+     */
+    public List<String> getReplicas(String objectName) {
+        int index = Arrays.binarySearch(points, hash(objectName));
+
+        if (index < 0) {
+            index = -index - 1;
+        }
+
+        // past the last virtual node the ring wraps around to the first one
+        return replicasByPoint.get(index == points.length ? 0 : index);
+    }
+
+    /**
+     * FNV-1a over the chars followed by the 64-bit finalizer of MurmurHash3, so that names differing in one char only,
+     * like "File1.txt" and "File2.txt", land far apart on the ring.
+     */
+    static long hash(String text) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+
+    private static class Point {
+        private long hash;
+        private String serverName;
+
+        Point(long hash, String serverName) {
+            this.hash = hash;
+            this.serverName = serverName;
+        }
+    }
+}
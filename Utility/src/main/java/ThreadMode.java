@@ -0,0 +1,86 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Kind of threads running the code that spends its time blocked: connection handlers, client request loops and
+ * connection readers. Virtual threads (Java 21 and later) cost a few hundred bytes instead of a stack each, so a node
+ * can keep a thread per connection or request for tens of thousands of them.
+ * <p>
+ * The project is built for Java 8, so virtual threads are created through method handles when the running JVM has
+ * them. On an older JVM {@link #Virtual} falls back to platform threads; {@link #isVirtualSupported()} tells which.
+ */
+public enum ThreadMode {
+    Platform,
+    Virtual;
+
+    private static final MethodHandle OF_VIRTUAL;
+    private static final MethodHandle NAME;
+    private static final MethodHandle UNSTARTED;
+    private static final MethodHandle NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        MethodHandle ofVirtual = null;
+        MethodHandle name = null;
+        MethodHandle unstarted = null;
+        MethodHandle newVirtualThreadPerTaskExecutor = null;
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Class<?> virtualBuilderType = Class.forName("java.lang.Thread$Builder$OfVirtual");
+
+            ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(virtualBuilderType));
+            name = lookup.findVirtual(builderType, "name", MethodType.methodType(builderType, String.class));
+            unstarted = lookup.findVirtual(builderType, "unstarted", MethodType.methodType(Thread.class, Runnable.class));
+            newVirtualThreadPerTaskExecutor = lookup.findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+        }
+        catch (ReflectiveOperationException ignored) {
+            // before Java 21
+        }
+
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        UNSTARTED = unstarted;
+        NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = newVirtualThreadPerTaskExecutor;
+    }
+
+    public static boolean isVirtualSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Creates an unstarted thread of this kind. Virtual threads are always daemon threads, platform threads are
+     * created as by {@link Thread#Thread(Runnable, String)}.
+     */
+    public Thread newThread(String name, Runnable task) {
+        if (this == Virtual && isVirtualSupported()) {
+            try {
+                return (Thread) UNSTARTED.invoke(NAME.invoke(OF_VIRTUAL.invoke(), name), task);
+            }
+            catch (Throwable e) {
+                throw new IllegalStateException("Cannot create a virtual thread", e);
+            }
+        }
+
+        return new Thread(task, name);
+    }
+
+    /**
+     * Executor running every task on a new thread of this kind, or on a cached platform thread.
+     */
+    public ExecutorService newThreadPerTaskExecutor() {
+        if (this == Virtual && isVirtualSupported()) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke();
+            }
+            catch (Throwable e) {
+                throw new IllegalStateException("Cannot create a virtual thread executor", e);
+            }
+        }
+
+        return Executors.newCachedThreadPool();
+    }
+}
@@ -0,0 +1,246 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Remembers which client writes were appended already, by the monotonic request id every client puts on its writes.
+ * Per client and file it keeps the highest id seen and a sliding window of the ids just below it, since the writes of
+ * a client to the same file may still reach a replica out of order. Windows are per file because writes to different
+ * files go through different critical sections: a write held up behind a busy file must not fall out of the window
+ * while the same client keeps writing to other files. An id older than its window can be neither told apart from a
+ * duplicate nor appended safely, so it is reported as expired for the server to reject.
+ * <p>
+ * At most a fixed number of windows are kept; the one written least recently is retired when another one is needed,
+ * keeping nothing but its high-water mark. Every id up to a retired mark is reported as expired, and a later id brings
+ * the window back. So the memory of the windows follows the number of client and file pairs written to lately, while
+ * a pair written to once costs a single mark for as long as the server runs.
+ * <p>
+ * The state can be saved to a snapshot holding one high-water mark per client and file. After loading it, every id up
+ * to the saved mark counts as seen. Snapshots are taken periodically, not with every append: writes appended after the
+ * last snapshot are not remembered after a crash, and a client retrying one of them has it appended a second time.
+ * The state is guarded by a lock rather than a monitor, and the snapshot file is only read and written outside of it,
+ * so neither a virtual thread recording a write nor the disk ever pins a carrier.
+ */
+public class WriteDeduplicator {
+    public static final int DEFAULT_WINDOW = 1024;
+    public static final int DEFAULT_MAX_WINDOWS = 4096;
+
+    public enum Result {
+        Added,
+        Duplicate,
+        Expired
+    }
+
+    private int window;
+    private int maxWindows;
+    // "file|client" -> window, least recently written first; a file name never contains '|', a client name may
+    private LinkedHashMap<String, ClientWindow> clientWindows;
+    // "file|client" -> high-water mark of a retired window
+    private HashMap<String, Long> retiredMarks;
+    private boolean changed;
+    private ReentrantLock lock;
+    private ReentrantLock saveLock;
+
+    public WriteDeduplicator() {
+        this(DEFAULT_WINDOW, DEFAULT_MAX_WINDOWS);
+    }
+
+    public WriteDeduplicator(int window, int maxWindows) {
+        this.window = window;
+        this.maxWindows = maxWindows;
+        this.retiredMarks = new HashMap<>();
+        this.clientWindows = new LinkedHashMap<String, ClientWindow>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ClientWindow> eldest) {
+                if (size() <= WriteDeduplicator.this.maxWindows) {
+                    return false;
+                }
+
+                retiredMarks.put(eldest.getKey(), eldest.getValue().highWaterMark);
+                return true;
+            }
+        };
+        this.lock = new ReentrantLock();
+        this.saveLock = new ReentrantLock();
+    }
+
+    /**
+     * Records the write of the client to the file and returns {@link Result#Added}, or tells why it cannot be added.
+     */
+    public Result add(String clientName, String fileName, long requestId) {
+        lock.lock();
+        try {
+            return record(clientName, fileName, requestId);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of (client, file) windows kept, retired ones not included.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return clientWindows.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the high-water marks to a temporary file next to the snapshot and moves it in place, so that a crash
+     * leaves either the old or the new snapshot. Does nothing if no write was recorded since the last save. Only the
+     * copy of the marks is taken under the lock, writes keep being recorded while the snapshot goes to disk.
+     */
+    public void save(Path snapshotPath) throws IOException {
+        saveLock.lock();
+        try {
+            List<String> lines = new ArrayList<>();
+
+            lock.lock();
+            try {
+                if (!changed) {
+                    return;
+                }
+
+                for (Map.Entry<String, Long> entry : retiredMarks.entrySet()) {
+                    lines.add(String.format("%s|%d", entry.getKey(), entry.getValue()));
+                }
+
+                for (Map.Entry<String, ClientWindow> entry : clientWindows.entrySet()) {
+                    lines.add(String.format("%s|%d", entry.getKey(), entry.getValue().highWaterMark));
+                }
+
+                changed = false;
+            }
+            finally {
+                lock.unlock();
+            }
+
+            try {
+                Path temporaryPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+                Files.write(temporaryPath, lines, StandardCharsets.UTF_8);
+                Files.move(temporaryPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException e) {
+                lock.lock();
+                try {
+                    changed = true;
+                }
+                finally {
+                    lock.unlock();
+                }
+
+                throw e;
+            }
+        }
+        finally {
+            saveLock.unlock();
+        }
+    }
+
+    public void load(Path snapshotPath) throws IOException {
+        if (!Files.exists(snapshotPath)) {
+            return;
+        }
+
+        List<String> lines = Files.readAllLines(snapshotPath, StandardCharsets.UTF_8);
+
+        lock.lock();
+        try {
+            for (String line : lines) {
+                int fileNameEnd = line.indexOf('|');
+                int clientNameEnd = line.lastIndexOf('|');
+
+                if (fileNameEnd <= 0 || clientNameEnd <= fileNameEnd + 1) {
+                    throw new IOException(String.format("Malformed deduplication snapshot line '%s'", line));
+                }
+
+                BitSet seenIds = new BitSet(window);
+                seenIds.set(0, window);
+                String key = line.substring(0, clientNameEnd);
+                retiredMarks.remove(key);
+                clientWindows.put(key, new ClientWindow(Long.parseLong(line.substring(clientNameEnd + 1)), seenIds));
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private Result record(String clientName, String fileName, long requestId) {
+        String key = fileName + "|" + clientName;
+        ClientWindow clientWindow = clientWindows.get(key);
+
+        if (clientWindow == null) {
+            Long retiredMark = retiredMarks.get(key);
+
+            // which ids up to a retired mark were appended is forgotten, none of them may be appended again
+            if (retiredMark != null && requestId <= retiredMark) {
+                return Result.Expired;
+            }
+
+            clientWindow = new ClientWindow(requestId, new BitSet(window));
+
+            if (retiredMark != null) {
+                clientWindow.expiredUpTo = retiredMark;
+                retiredMarks.remove(key);
+            }
+
+            clientWindows.put(key, clientWindow);
+        }
+        else if (requestId > clientWindow.highWaterMark) {
+            // slots between the old and the new mark now stand for ids nobody has written yet
+            if (requestId - clientWindow.highWaterMark >= window) {
+                clientWindow.seenIds.clear();
+            }
+            else {
+                for (long id = clientWindow.highWaterMark + 1; id < requestId; id++) {
+                    clientWindow.seenIds.clear(slot(id));
+                }
+            }
+
+            clientWindow.highWaterMark = requestId;
+        }
+        else if (requestId <= clientWindow.highWaterMark - window || requestId <= clientWindow.expiredUpTo) {
+            return Result.Expired;
+        }
+        else if (clientWindow.seenIds.get(slot(requestId))) {
+            return Result.Duplicate;
+        }
+
+        clientWindow.seenIds.set(slot(requestId));
+        changed = true;
+
+        return Result.Added;
+    }
+
+    private int slot(long requestId) {
+        return (int) Math.floorMod(requestId, (long) window);
+    }
+
+    private static class ClientWindow {
+        private long highWaterMark;
+        private BitSet seenIds;
+        // the mark of the window when it was retired, ids up to it are expired however close to the current mark
+        private long expiredUpTo;
+
+        ClientWindow(long highWaterMark, BitSet seenIds) {
+            this.highWaterMark = highWaterMark;
+            this.seenIds = seenIds;
+            this.expiredUpTo = Long.MIN_VALUE;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A client write as servers pass it on through critical sections and syncs: "client|requestId|length|line", where
+ * length is the number of chars of the line. The records of a batch are simply put one after the other; since every
+ * line says how long it is, it may contain anything, newlines and '|' included, without being mistaken for more
+ * records.
+ */
+public class WriteRecord {
+    private String clientName;
+    private long requestId;
+    private String line;
+
+    public WriteRecord(String clientName, long requestId, String line) {
+        this.clientName = clientName;
+        this.requestId = requestId;
+        this.line = line;
+    }
+
+    public String getClientName() {
+        return clientName;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    /**
+     * Splits the records of a batch.
+     */
+    public static List<WriteRecord> parseAll(String records) {
+        List<WriteRecord> writeRecords = new ArrayList<>();
+        int start = 0;
+
+        while (start < records.length()) {
+            int requestIdStart = records.indexOf('|', start) + 1;
+            int lengthStart = requestIdStart == 0 ? 0 : records.indexOf('|', requestIdStart) + 1;
+            int lineStart = lengthStart == 0 ? 0 : records.indexOf('|', lengthStart) + 1;
+
+            if (lineStart == 0) {
+                throw new IllegalArgumentException(String.format("Malformed write record '%s'", records.substring(start)));
+            }
+
+            int lineEnd;
+
+            try {
+                lineEnd = lineStart + Integer.parseInt(records.substring(lengthStart, lineStart - 1));
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Malformed write record '%s'", records.substring(start)), e);
+            }
+
+            if (lineEnd < lineStart || lineEnd > records.length()) {
+                throw new IllegalArgumentException(String.format("Truncated write record '%s'", records.substring(start)));
+            }
+
+            writeRecords.add(new WriteRecord(records.substring(start, requestIdStart - 1),
+                    Long.parseLong(records.substring(requestIdStart, lengthStart - 1)), records.substring(lineStart, lineEnd)));
+            start = lineEnd;
+        }
+
+        return writeRecords;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s|%d|%d|%s", clientName, requestId, line.length(), line);
+    }
+}
@@ -0,0 +1,39 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Picks numbers from 0 to n - 1 with a probability proportional to 1 / (rank + 1)^exponent, so that a few numbers
+ * (the lowest ones) are picked most of the time, as the popular keys of a real workload. The cumulative probabilities
+ * are computed once, and a pick is a binary search.
+ */
+public class ZipfDistribution {
+    public static final double DEFAULT_EXPONENT = 0.99;
+
+    private double[] cumulativeProbabilities;
+
+    public ZipfDistribution(int n, double exponent) {
+        if (n <= 0) {
+            throw new IllegalArgumentException(String.format("Cannot pick from %d numbers", n));
+        }
+
+        this.cumulativeProbabilities = new double[n];
+
+        double total = 0;
+
+        for (int i = 0; i < n; i++) {
+            total += 1 / Math.pow(i + 1, exponent);
+            cumulativeProbabilities[i] = total;
+        }
+
+        for (int i = 0; i < n; i++) {
+            cumulativeProbabilities[i] /= total;
+        }
+    }
+
+    public int next(Random random) {
+        int index = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+
+        // rounding may leave the last cumulative probability a hair below 1
+        return Math.min(index < 0 ? -index - 1 : index, cumulativeProbabilities.length - 1);
+    }
+}
@@ -0,0 +1,64 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkedFileReaderTest {
+
+    @Test
+    void testReadSameAsGetFileContent() throws IOException {
+        Path filePath = write("first\nsecond\r\n\nfourth\rfifth\n");
+        List<String> chunks = new ArrayList<>();
+
+        int lineCount = ChunkedFileReader.read(filePath.toString(), Files.size(filePath), 0, 4, chunks::add);
+
+        assertEquals(5, lineCount);
+        assertEquals(FileUtil.getFileContent(filePath.toString()), String.join("", chunks));
+        assertTrue(chunks.stream().allMatch(chunk -> chunk.length() <= 9));
+    }
+
+    @Test
+    void testReadFromLine() throws IOException {
+        Path filePath = write("first\nsecond\nthird");
+        List<String> chunks = new ArrayList<>();
+
+        int lineCount = ChunkedFileReader.read(filePath.toString(), Files.size(filePath), 1, 1024, chunks::add);
+
+        assertEquals(3, lineCount);
+        assertEquals("second{newLine}third", String.join("", chunks));
+    }
+
+    @Test
+    void testReadStopsAtByteCount() throws IOException {
+        Path filePath = write("first\nsecond\n");
+        List<String> chunks = new ArrayList<>();
+
+        int lineCount = ChunkedFileReader.read(filePath.toString(), 6, 0, 1024, chunks::add);
+
+        assertEquals(1, lineCount);
+        assertEquals("first", String.join("", chunks));
+    }
+
+    @Test
+    void testReadKeepsSurrogatePairsTogether() throws IOException {
+        Path filePath = write("a\uD83D\uDE00b");
+        List<String> chunks = new ArrayList<>();
+
+        ChunkedFileReader.read(filePath.toString(), Files.size(filePath), 0, 2, chunks::add);
+
+        assertEquals("a\uD83D\uDE00b", String.join("", chunks));
+        assertEquals("\uD83D\uDE00", chunks.get(1));
+    }
+
+    private static Path write(String content) throws IOException {
+        Path filePath = Files.createTempDirectory("chunked").resolve("Test.txt");
+        Files.write(filePath, content.getBytes(StandardCharsets.UTF_8));
+        return filePath;
+    }
+}
@@ -0,0 +1,84 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentCacheTest {
+
+    @Test
+    void testGetMiss() {
+        ContentCache cache = new ContentCache();
+        assertNull(cache.get("File0.txt"));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void testPutAndGet() {
+        ContentCache cache = new ContentCache();
+        cache.put("File0.txt", Arrays.asList("first", "second"));
+        assertEquals("first{newLine}second", cache.get("File0.txt"));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    void testAppend() {
+        ContentCache cache = new ContentCache();
+        cache.put("File0.txt", Collections.emptyList());
+        cache.append("File0.txt", Collections.singletonList("first"));
+        assertEquals("first", cache.get("File0.txt"));
+        cache.append("File0.txt", Arrays.asList("second", "third"));
+        assertEquals("first{newLine}second{newLine}third", cache.get("File0.txt"));
+    }
+
+    @Test
+    void testAppendAfterEmptyLine() {
+        ContentCache cache = new ContentCache();
+        cache.put("File0.txt", Collections.singletonList(""));
+        cache.append("File0.txt", Collections.singletonList("first"));
+        assertEquals("{newLine}first", cache.get("File0.txt"));
+    }
+
+    @Test
+    void testGetFromLine() {
+        ContentCache cache = new ContentCache();
+        cache.put("File0.txt", Arrays.asList("first", "second"));
+        cache.append("File0.txt", Collections.singletonList("third"));
+
+        ContentCache.Slice slice = cache.get("File0.txt", 1);
+        assertEquals(3, slice.getLineCount());
+        assertEquals("second{newLine}third", slice.getContent());
+    }
+
+    @Test
+    void testGetFromLineAtEnd() {
+        ContentCache cache = new ContentCache();
+        cache.put("File0.txt", Arrays.asList("first", "second"));
+
+        ContentCache.Slice slice = cache.get("File0.txt", 2);
+        assertEquals(2, slice.getLineCount());
+        assertEquals("", slice.getContent());
+    }
+
+    @Test
+    void testAppendNotCached() {
+        ContentCache cache = new ContentCache();
+        cache.append("File0.txt", Collections.singletonList("first"));
+        assertNull(cache.get("File0.txt"));
+    }
+
+    @Test
+    void testEvictLeastRecentlyRead() {
+        ContentCache cache = new ContentCache(250);
+        cache.put("File0.txt", Collections.singletonList("0123456789"));
+        cache.put("File1.txt", Collections.singletonList("0123456789"));
+        cache.get("File0.txt");
+        cache.put("File2.txt", Collections.singletonList("0123456789"));
+
+        assertEquals(1, cache.getEvictionCount());
+        assertNotNull(cache.get("File0.txt"));
+        assertNull(cache.get("File1.txt"));
+        assertNotNull(cache.get("File2.txt"));
+    }
+}
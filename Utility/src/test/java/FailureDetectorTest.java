@@ -0,0 +1,51 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FailureDetectorTest {
+
+    @Test
+    void testNeverHeardFrom() {
+        FailureDetector failureDetector = new FailureDetector(10, 100);
+
+        assertFalse(failureDetector.isAlive("Server0"));
+    }
+
+    @Test
+    void testHeartbeat() {
+        FailureDetector failureDetector = new FailureDetector(10, 100);
+        failureDetector.heartbeat("Server0");
+
+        assertTrue(failureDetector.isAlive("Server0"));
+        assertFalse(failureDetector.isAlive("Server1"));
+    }
+
+    @Test
+    void testSuspect() {
+        FailureDetector failureDetector = new FailureDetector(10, 100);
+        failureDetector.heartbeat("Server0");
+        failureDetector.suspect("Server0");
+
+        assertFalse(failureDetector.isAlive("Server0"));
+
+        failureDetector.heartbeat("Server0");
+        assertTrue(failureDetector.isAlive("Server0"));
+    }
+
+    @Test
+    void testSuspectNeverHeardFrom() {
+        FailureDetector failureDetector = new FailureDetector(10, 100);
+        failureDetector.suspect("Server0");
+
+        assertFalse(failureDetector.isAlive("Server0"));
+    }
+
+    @Test
+    void testSuspicionTimeout() throws InterruptedException {
+        FailureDetector failureDetector = new FailureDetector(10, 50);
+        failureDetector.heartbeat("Server0");
+        Thread.sleep(100);
+
+        assertFalse(failureDetector.isAlive("Server0"));
+    }
+}
@@ -0,0 +1,94 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileAppenderPoolTest {
+
+    @Test
+    void testAppend() throws IOException {
+        Path filePath = Files.createTempDirectory("appender").resolve("Test.txt");
+
+        try (FileAppenderPool pool = new FileAppenderPool()) {
+            pool.append(filePath.toString(), Arrays.asList("first", "second"));
+            pool.append(filePath.toString(), Collections.singletonList("third"));
+        }
+
+        assertEquals(Arrays.asList("first", "second", "third"), Files.readAllLines(filePath, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testAppendAfterEviction() throws IOException {
+        Path directory = Files.createTempDirectory("appender");
+        Path firstPath = directory.resolve("Test1.txt");
+        Path secondPath = directory.resolve("Test2.txt");
+
+        try (FileAppenderPool pool = new FileAppenderPool(1, FileAppenderPool.Durability.Batch, FileAppenderPool.DEFAULT_SYNC_INTERVAL)) {
+            pool.append(firstPath.toString(), Collections.singletonList("one"));
+            pool.append(secondPath.toString(), Collections.singletonList("two"));
+            pool.append(firstPath.toString(), Collections.singletonList("three"));
+        }
+
+        assertEquals(Arrays.asList("one", "three"), Files.readAllLines(firstPath, StandardCharsets.UTF_8));
+        assertEquals(Collections.singletonList("two"), Files.readAllLines(secondPath, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testAppendLineLongerThanBuffer() throws IOException {
+        Path filePath = Files.createTempDirectory("appender").resolve("Test.txt");
+        StringBuilder line = new StringBuilder();
+
+        for (int i = 0; i < 100000; i++) {
+            line.append('\u00e9');
+        }
+
+        try (FileAppenderPool pool = new FileAppenderPool(4, FileAppenderPool.Durability.Periodic, 10)) {
+            pool.append(filePath.toString(), Collections.singletonList(line.toString()));
+        }
+
+        assertEquals(Collections.singletonList(line.toString()), Files.readAllLines(filePath, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testAppendFromManyThreadsWithEvictions() throws Exception {
+        Path directory = Files.createTempDirectory("appender");
+        int fileCount = 5;
+        int threadCount = 8;
+        int appendsPerThread = 200;
+        List<Thread> threads = new ArrayList<>();
+
+        try (FileAppenderPool pool = new FileAppenderPool(2, FileAppenderPool.Durability.None, FileAppenderPool.DEFAULT_SYNC_INTERVAL)) {
+            for (int i = 0; i < threadCount; i++) {
+                int threadNumber = i;
+                Thread thread = new Thread(() -> {
+                    try {
+                        for (int j = 0; j < appendsPerThread; j++) {
+                            pool.append(directory.resolve(String.format("Test%d.txt", j % fileCount)).toString(), Collections.singletonList(String.format("%d-%d", threadNumber, j)));
+                        }
+                    }
+                    catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        for (int fileNumber = 0; fileNumber < fileCount; fileNumber++) {
+            assertEquals(threadCount * appendsPerThread / fileCount, Files.readAllLines(directory.resolve(String.format("Test%d.txt", fileNumber)), StandardCharsets.UTF_8).size());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LamportClockTest {
+
+    @Test
+    void testTick() {
+        LamportClock clock = new LamportClock();
+
+        assertEquals(1, clock.tick());
+        assertEquals(2, clock.tick());
+        assertEquals(2, clock.getTime());
+    }
+
+    @Test
+    void testReceive() {
+        LamportClock clock = new LamportClock();
+
+        // a later timestamp moves the clock past it, an earlier one only advances it
+        assertEquals(12, clock.receive(10));
+        assertEquals(13, clock.receive(5));
+    }
+
+    @Test
+    void testReceiveBeyondInt() {
+        LamportClock clock = new LamportClock();
+
+        assertEquals(Integer.MAX_VALUE + 2L, clock.receive(Integer.MAX_VALUE));
+        assertEquals(Integer.MAX_VALUE + 3L, clock.tick());
+    }
+
+    @Test
+    void testConcurrentTicks() throws InterruptedException {
+        LamportClock clock = new LamportClock();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    clock.tick();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, clock.getTime());
+    }
+}
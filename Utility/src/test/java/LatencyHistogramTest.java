@@ -0,0 +1,69 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(50.5, histogram.getMean());
+    }
+
+    @Test
+    void testLargeValuesWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long i = 1; i <= 1000000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        for (double percentile : new double[]{50, 99, 99.9}) {
+            long expected = (long) (percentile * 10000) * 1000;
+            long actual = histogram.getValueAtPercentile(percentile);
+
+            assertTrue(actual >= expected && actual <= expected + expected / 64, String.format("p%s = %d", percentile, actual));
+        }
+
+        assertEquals(1000000000L, histogram.getMax());
+        assertEquals(1000000000L, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void testAdd() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        LatencyHistogram other = new LatencyHistogram();
+
+        for (int i = 1; i <= 50; i++) {
+            histogram.record(i);
+            other.record(i + 50);
+        }
+
+        histogram.add(other);
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(100, histogram.getMax());
+    }
+
+    @Test
+    void testLongRange() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(50));
+    }
+}
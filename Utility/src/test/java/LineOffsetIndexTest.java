@@ -0,0 +1,123 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineOffsetIndexTest {
+
+    @Test
+    void testCheckpointsStartLines() throws IOException {
+        Path filePath = write("first\nsecond\r\n\nfourth\rfifth\r\nsixth\n");
+        LineOffsetIndex index = new LineOffsetIndex(2);
+
+        index.catchUp(filePath.toString(), Files.size(filePath));
+
+        assertEquals(6, index.getLineCount());
+        assertEquals(Files.size(filePath), index.getByteCount());
+
+        for (int line = 0; line < 7; line++) {
+            List<String> chunks = new ArrayList<>();
+            LineOffsetIndex.Checkpoint checkpoint = index.getCheckpoint(line);
+            int lineCount = checkpoint.getLine() + ChunkedFileReader.read(filePath.toString(), checkpoint.getOffset(),
+                    Files.size(filePath), line - checkpoint.getLine(), 1024, chunks::add);
+
+            List<String> expected = new ArrayList<>();
+            int expectedLineCount = ChunkedFileReader.read(filePath.toString(), Files.size(filePath), line, 1024, expected::add);
+
+            assertTrue(checkpoint.getLine() <= line);
+            assertEquals(expectedLineCount, lineCount);
+            assertEquals(String.join("", expected), String.join("", chunks));
+        }
+    }
+
+    @Test
+    void testAppendSameAsCatchUp() throws IOException {
+        Path filePath = write("first\nsec");
+        LineOffsetIndex appendedIndex = new LineOffsetIndex(2);
+        appendedIndex.catchUp(filePath.toString(), Files.size(filePath));
+
+        List<String> lines = Arrays.asList("ond", "th\u00efrd \uD83D\uDE00", "lone \uD800 surrogate", "", "sixth");
+        try (FileAppenderPool pool = new FileAppenderPool()) {
+            pool.append(filePath.toString(), lines);
+        }
+        appendedIndex.append(lines);
+
+        LineOffsetIndex scannedIndex = new LineOffsetIndex(2);
+        scannedIndex.catchUp(filePath.toString(), Files.size(filePath));
+
+        assertEquals(scannedIndex.getByteCount(), appendedIndex.getByteCount());
+        assertEquals(scannedIndex.getLineCount(), appendedIndex.getLineCount());
+
+        for (int line = 0; line < scannedIndex.getLineCount(); line++) {
+            assertEquals(scannedIndex.getCheckpoint(line).getOffset(), appendedIndex.getCheckpoint(line).getOffset());
+        }
+    }
+
+    @Test
+    void testCatchUpAfterReplacedFile() throws IOException {
+        Path filePath = write("first\nsecond\nthird\n");
+        LineOffsetIndex index = new LineOffsetIndex(1);
+        index.catchUp(filePath.toString(), Files.size(filePath));
+
+        Files.write(filePath, "one\ntwo\n".getBytes(StandardCharsets.UTF_8));
+        index.catchUp(filePath.toString(), Files.size(filePath));
+
+        assertEquals(2, index.getLineCount());
+        assertEquals(4, index.getCheckpoint(1).getOffset());
+    }
+
+    @Test
+    void testTailReadOfLargeFileSkipsPrefix() throws IOException {
+        int lineCount = 100000;
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < lineCount; i++) {
+            content.append(String.format("line %08d of a file too large to be cached\n", i));
+        }
+        Path filePath = write(content.toString());
+        long byteCount = Files.size(filePath);
+        assertTrue(byteCount > 4 * 1024 * 1024);
+
+        LineOffsetIndex index = new LineOffsetIndex();
+        index.catchUp(filePath.toString(), byteCount);
+
+        // once indexed, the prefix is never read again: garbling it in place changes nothing for a tail read
+        try (RandomAccessFile file = new RandomAccessFile(filePath.toFile(), "rw")) {
+            byte[] garbage = new byte[(int) (byteCount / 2)];
+            Arrays.fill(garbage, (byte) '\n');
+            file.write(garbage);
+        }
+
+        int fromLine = lineCount - 3;
+        List<String> chunks = new ArrayList<>();
+        LineOffsetIndex.Checkpoint checkpoint = index.getCheckpoint(fromLine);
+        int readLineCount = checkpoint.getLine() + ChunkedFileReader.read(filePath.toString(), checkpoint.getOffset(),
+                byteCount, fromLine - checkpoint.getLine(), 1024, chunks::add);
+
+        assertEquals(lineCount, readLineCount);
+        assertEquals(String.format("line %08d of a file too large to be cached{newLine}", lineCount - 3)
+                + String.format("line %08d of a file too large to be cached{newLine}", lineCount - 2)
+                + String.format("line %08d of a file too large to be cached", lineCount - 1), String.join("", chunks));
+
+        // appends are indexed without reading the file again
+        index.append(Arrays.asList("appended"));
+        Files.write(filePath, String.format("appended%n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        index.catchUp(filePath.toString(), Files.size(filePath));
+
+        assertEquals(lineCount + 1, index.getLineCount());
+    }
+
+    private static Path write(String content) throws IOException {
+        Path filePath = Files.createTempDirectory("index").resolve("Test.txt");
+        Files.write(filePath, content.getBytes(StandardCharsets.UTF_8));
+        return filePath;
+    }
+}
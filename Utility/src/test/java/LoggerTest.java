@@ -0,0 +1,109 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoggerTest {
+
+    private static String captureOutput(Runnable logging) {
+        PrintStream standardOutput = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        System.setOut(new PrintStream(output, true));
+        try {
+            logging.run();
+        }
+        finally {
+            System.setOut(standardOutput);
+        }
+
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testLogTemplate() {
+        String output = captureOutput(() -> {
+            Logger logger = new Logger(Logger.LogLevel.Release);
+            logger.log("%s sends '%s' to %s", "Server0", 42, "Server1");
+            logger.log("100% plain");
+            logger.flush();
+        });
+
+        assertTrue(output.startsWith("> Server0 sends '42' to Server1 at time: "), output);
+        assertTrue(output.contains("> 100% plain at time: "), output);
+    }
+
+    @Test
+    void testDebugDisabled() {
+        String output = captureOutput(() -> {
+            Logger logger = new Logger(Logger.LogLevel.Release);
+            logger.debug(() -> {
+                throw new AssertionError("a disabled level must not build the message");
+            });
+            logger.debug("%s", "hidden");
+            logger.flush();
+        });
+
+        assertEquals("", output);
+    }
+
+    @Test
+    void testOrderKept() {
+        String output = captureOutput(() -> {
+            Logger logger = new Logger(Logger.LogLevel.Debug, 4, Logger.OverflowPolicy.Block);
+
+            for (int i = 0; i < 100; i++) {
+                logger.debug("line %d", i);
+            }
+
+            logger.flush();
+        });
+
+        String[] lines = output.split(System.lineSeparator());
+        assertEquals(100, lines.length);
+        assertTrue(lines[99].startsWith("> line 99 at time: "), lines[99]);
+    }
+
+    @Test
+    void testDropWhenFull() {
+        String output = captureOutput(() -> {
+            Logger logger = new Logger(Logger.LogLevel.Release, 2, Logger.OverflowPolicy.Drop);
+
+            for (int i = 0; i < 1000; i++) {
+                logger.log("line %d of %d", i, 1000);
+            }
+
+            logger.flush();
+        });
+
+        int previous = -1;
+        for (String line : output.split(System.lineSeparator())) {
+            if (line.startsWith("> line ")) {
+                int number = Integer.parseInt(line.substring("> line ".length(), line.indexOf(" of 1000")));
+                assertTrue(number > previous, output);
+                previous = number;
+            }
+            else {
+                assertTrue(line.matches("> \\d+ log lines dropped"), line);
+            }
+        }
+        assertTrue(previous >= 0, output);
+    }
+
+    @Test
+    void testOneWriterThreadForAllLoggers() {
+        captureOutput(() -> {
+            for (int i = 0; i < 20; i++) {
+                Logger logger = new Logger(Logger.LogLevel.Release);
+                logger.log("logger %d", i);
+                logger.flush();
+            }
+        });
+
+        long writerThreadCount = Thread.getAllStackTraces().keySet().stream().filter(thread -> thread.getName().equals("logger")).count();
+        assertEquals(1, writerThreadCount);
+    }
+}
@@ -0,0 +1,67 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageCodecTest {
+
+    @Test
+    void testRoundTrip() {
+        Message message = new Message("client1", Message.MessageType.ClientWriteRequest, 300, "File1.txt|Something");
+        Message decoded = new MessageCodec().decode(ByteBuffer.wrap(new MessageCodec().encode(message)));
+
+        assertEquals(message.toString(), decoded.toString());
+    }
+
+    @Test
+    void testRoundTripEmptyPayload() {
+        Message message = new Message("server0", Message.MessageType.WriteReleaseRequest, 0, "");
+        Message decoded = new MessageCodec().decode(ByteBuffer.wrap(new MessageCodec().encode(message)));
+
+        assertEquals("", decoded.getPayload());
+    }
+
+    @Test
+    void testRoundTripCorrelationId() {
+        Message message = new Message("client1", Message.MessageType.ClientReadRequest, 7, "File1.txt", 1L << 40);
+        Message decoded = new MessageCodec().decode(ByteBuffer.wrap(new MessageCodec().encode(message)));
+
+        assertEquals(1L << 40, decoded.getCorrelationId());
+        assertEquals(Message.MessageType.ClientReadRequest, decoded.getType());
+        assertEquals(7, decoded.getTimeStamp());
+    }
+
+    @Test
+    void testRoundTripLongTimeStamp() {
+        Message message = new Message("server0", Message.MessageType.WriteAcquireRequest, 1L << 33, "File1.txt");
+        Message decoded = new MessageCodec().decode(ByteBuffer.wrap(new MessageCodec().encode(message)));
+
+        assertEquals(1L << 33, decoded.getTimeStamp());
+    }
+
+    @Test
+    void testSenderNameIsInterned() {
+        MessageCodec encoder = new MessageCodec();
+        MessageCodec decoder = new MessageCodec();
+        byte[] first = encoder.encode(new Message("server0", Message.MessageType.Heartbeat, 1, ""));
+        byte[] second = encoder.encode(new Message("server0", Message.MessageType.Heartbeat, 2, ""));
+
+        assertTrue(second.length < first.length);
+        assertEquals("server0", decoder.decode(ByteBuffer.wrap(first)).getSenderName());
+        assertEquals("server0", decoder.decode(ByteBuffer.wrap(second)).getSenderName());
+    }
+
+    @Test
+    void testPayloadLargerThanWriteUtfLimit() {
+        StringBuilder payload = new StringBuilder("File0.txt|");
+        for (int i = 0; i < 100000; i++) {
+            payload.append('x');
+        }
+
+        Message message = new Message("server0", Message.MessageType.ReadSuccessAck, 5, payload.toString());
+        Message decoded = new MessageCodec().decode(ByteBuffer.wrap(new MessageCodec().encode(message)));
+
+        assertEquals(100000, decoded.getDataFromPayload().length());
+    }
+}
@@ -0,0 +1,117 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageStreamTest {
+
+    @Test
+    void testBinaryHandshake() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CompletableFuture<MessageStream> accepted = CompletableFuture.supplyAsync(() -> accept(serverSocket, MessageStream.Framing.Binary));
+            MessageStream connected = MessageStream.connect(connect(serverSocket), "Client 'client0'", MessageStream.Framing.Binary);
+            MessageStream acceptor = accepted.get();
+
+            connected.write(new Message("client0", Message.MessageType.ClientReadRequest, 1, "File0.txt"));
+            assertEquals("File0.txt", acceptor.read().getPayload());
+            acceptor.write(new Message("server0", Message.MessageType.ReadSuccessAck, 2, "content"));
+            assertEquals("content", connected.read().getPayload());
+
+            assertEquals(MessageStream.Framing.Binary, connected.getFraming());
+            assertEquals(MessageStream.Framing.Binary, acceptor.getFraming());
+            assertEquals("Client 'client0'", acceptor.getGreeting());
+        }
+    }
+
+    @Test
+    void testTextAnswer() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CompletableFuture<MessageStream> accepted = CompletableFuture.supplyAsync(() -> accept(serverSocket, MessageStream.Framing.Text));
+            MessageStream connected = MessageStream.connect(connect(serverSocket), "Client 'client0'", MessageStream.Framing.Binary);
+            MessageStream acceptor = accepted.get();
+
+            connected.write(new Message("client0", Message.MessageType.ClientReadRequest, 1, "File0.txt"));
+            assertEquals("File0.txt", acceptor.read().getPayload());
+
+            assertEquals(MessageStream.Framing.Text, connected.getFraming());
+            assertEquals(MessageStream.Framing.Text, acceptor.getFraming());
+        }
+    }
+
+    @Test
+    void testUnconfirmedAnswerKeepsText() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CompletableFuture<MessageStream> accepted = CompletableFuture.supplyAsync(() -> accept(serverSocket, MessageStream.Framing.Binary));
+
+            // a connecting node that gave up waiting for the answer and sends text without confirming
+            try (Socket socket = connect(serverSocket)) {
+                DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+                DataInputStream input = new DataInputStream(socket.getInputStream());
+                output.writeUTF(String.format("Client 'client0' %s", MessageStream.BINARY_PROPOSAL));
+                output.writeUTF(new Message("client0", Message.MessageType.ClientReadRequest, 1, "File0.txt").toString());
+                output.flush();
+
+                MessageStream acceptor = accepted.get();
+                assertEquals("File0.txt", acceptor.read().getPayload());
+                assertEquals(MessageStream.Framing.Text, acceptor.getFraming());
+
+                acceptor.write(new Message("server0", Message.MessageType.ReadSuccessAck, 2, "content"));
+                assertEquals(MessageStream.BINARY_PROPOSAL, input.readUTF());
+                assertEquals("content", new Message(input.readUTF()).getPayload());
+            }
+        }
+    }
+
+    @Test
+    void testLateAnswerSkipped() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            // an accepting node that answers only after the connecting node has given up on the answer
+            CompletableFuture<Void> acceptor = CompletableFuture.runAsync(() -> {
+                try (Socket socket = serverSocket.accept()) {
+                    DataInputStream input = new DataInputStream(socket.getInputStream());
+                    DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+                    input.readUTF();
+                    Thread.sleep(2500);
+                    output.writeUTF(MessageStream.BINARY_PROPOSAL);
+
+                    assertEquals("File0.txt", new Message(input.readUTF()).getFileNameFromPayload());
+                    output.writeUTF(new Message("server0", Message.MessageType.ReadSuccessAck, 2, "content").toString());
+                    output.flush();
+                    input.read();
+                }
+                catch (IOException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
+            MessageStream connected = MessageStream.connect(connect(serverSocket), "Client 'client0'", MessageStream.Framing.Binary);
+            assertEquals(MessageStream.Framing.Text, connected.getFraming());
+
+            connected.write(new Message("client0", Message.MessageType.ClientReadRequest, 1, "File0.txt"));
+            assertEquals("content", connected.read().getPayload());
+
+            connected.close();
+            acceptor.get();
+        }
+    }
+
+    private static Socket connect(ServerSocket serverSocket) throws IOException {
+        return new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+    }
+
+    private static MessageStream accept(ServerSocket serverSocket, MessageStream.Framing framing) {
+        try {
+            return MessageStream.accept(serverSocket.accept(), framing);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
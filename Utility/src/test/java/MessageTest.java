@@ -59,6 +59,13 @@ class MessageTest {
         assertEquals(1, messageFromString.getTimeStamp());
     }
 
+    @Test
+    void testGetLongTimeStampString() {
+        Message message = new Message("server0|WriteReleaseRequest|4294967296|File1.txt|4294967295");
+        assertEquals(4294967296L, message.getTimeStamp());
+        assertEquals("server0|WriteReleaseRequest|4294967296|File1.txt|4294967295", message.toString());
+    }
+
     @Test
     void testGetPayloadString() {
         assertEquals("File1.txt|Something", messageFromString.getPayload());
@@ -84,4 +91,17 @@ class MessageTest {
         assertEquals("client0|WriteAcquireRequest|0|File0.txt", messageFromObject.toString());
     }
 
+    @Test
+    void testCorrelationIdString() {
+        Message message = new Message("client1|ClientReadRequest#42|3|File1.txt");
+        assertEquals(42, message.getCorrelationId());
+        assertEquals(Message.MessageType.ClientReadRequest, message.getType());
+        assertEquals("client1|ClientReadRequest#42|3|File1.txt", message.toString());
+    }
+
+    @Test
+    void testCorrelationIdDefault() {
+        assertEquals(0, messageFromString.getCorrelationId());
+    }
+
 }
\ No newline at end of file
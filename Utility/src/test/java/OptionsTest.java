@@ -0,0 +1,52 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OptionsTest {
+
+    private static Options options;
+
+    @BeforeAll
+    static void setUp() {
+        options = new Options();
+        options.parse("engine = nio");
+        options.parse("workers=8");
+        options.parse("");
+    }
+
+    @Test
+    void testGet() {
+        assertEquals("nio", options.get("engine", "blocking"));
+    }
+
+    @Test
+    void testGetDefault() {
+        assertEquals("blocking", options.get("missing", "blocking"));
+    }
+
+    @Test
+    void testGetInt() {
+        assertEquals(8, options.getInt("workers", 1));
+    }
+
+    @Test
+    void testGetDouble() {
+        Options loadOptions = new Options();
+        loadOptions.parse("load.zipf.exponent=0.8");
+        assertEquals(0.8, loadOptions.getDouble("load.zipf.exponent", 0.99));
+        assertEquals(0.99, loadOptions.getDouble("missing", 0.99));
+    }
+
+    @Test
+    void testGetEnum() {
+        Options levelOptions = new Options();
+        levelOptions.parse("level=DEBUG");
+        assertEquals(Logger.LogLevel.Debug, levelOptions.getEnum("level", Logger.LogLevel.Release));
+    }
+
+    @Test
+    void testParseInvalidLine() {
+        assertThrows(IllegalArgumentException.class, () -> options.parse("engine"));
+    }
+}
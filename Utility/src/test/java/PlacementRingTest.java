@@ -0,0 +1,69 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlacementRingTest {
+
+    private static List<String> serverNames(int count) {
+        List<String> serverNames = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            serverNames.add(String.format("Server%d", i));
+        }
+
+        return serverNames;
+    }
+
+    @Test
+    void testReplicasAreDistinct() {
+        PlacementRing ring = new PlacementRing(serverNames(7));
+
+        for (int i = 0; i < 100; i++) {
+            List<String> replicas = ring.getReplicas(String.format("File%d.txt", i));
+            assertEquals(3, replicas.size());
+            assertEquals(3, new HashSet<>(replicas).size());
+        }
+    }
+
+    @Test
+    void testReplicationFactorAboveServerCount() {
+        PlacementRing ring = new PlacementRing(serverNames(2), 3, 8);
+        assertEquals(new HashSet<>(serverNames(2)), new HashSet<>(ring.getReplicas("File0.txt")));
+    }
+
+    @Test
+    void testSamePlacementWhateverTheServerOrder() {
+        List<String> shuffledNames = serverNames(7);
+        Collections.shuffle(shuffledNames, new Random(42));
+
+        PlacementRing ring = new PlacementRing(serverNames(7));
+        PlacementRing shuffledRing = new PlacementRing(shuffledNames);
+
+        for (int i = 0; i < 100; i++) {
+            String fileName = String.format("File%d.txt", i);
+            assertEquals(ring.getReplicas(fileName), shuffledRing.getReplicas(fileName));
+        }
+    }
+
+    @Test
+    void testAddingServerMovesFewFiles() {
+        PlacementRing ring = new PlacementRing(serverNames(7), 1, PlacementRing.DEFAULT_VIRTUAL_NODES);
+        PlacementRing largerRing = new PlacementRing(serverNames(8), 1, PlacementRing.DEFAULT_VIRTUAL_NODES);
+        int movedCount = 0;
+
+        for (int i = 0; i < 1000; i++) {
+            String fileName = String.format("File%d.txt", i);
+
+            if (!ring.getReplicas(fileName).equals(largerRing.getReplicas(fileName))) {
+                // a file only ever moves to the new server
+                assertEquals(Collections.singletonList("Server7"), largerRing.getReplicas(fileName));
+                movedCount++;
+            }
+        }
+
+        // about 1/8 of the files move, a modulo placement would move 7/8 of them
+        assertTrue(movedCount > 50 && movedCount < 250, String.valueOf(movedCount));
+    }
+}
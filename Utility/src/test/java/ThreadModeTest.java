@@ -0,0 +1,33 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThreadModeTest {
+
+    @Test
+    void testNewThread() throws InterruptedException {
+        for (ThreadMode threadMode : ThreadMode.values()) {
+            AtomicReference<String> threadName = new AtomicReference<>();
+            Thread thread = threadMode.newThread("worker", () -> threadName.set(Thread.currentThread().getName()));
+
+            thread.start();
+            thread.join();
+
+            assertEquals("worker", threadName.get());
+        }
+    }
+
+    @Test
+    void testNewThreadPerTaskExecutor() throws Exception {
+        for (ThreadMode threadMode : ThreadMode.values()) {
+            ExecutorService executor = threadMode.newThreadPerTaskExecutor();
+
+            assertEquals(42, (int) executor.submit(() -> 42).get(1, TimeUnit.SECONDS));
+            executor.shutdown();
+        }
+    }
+}
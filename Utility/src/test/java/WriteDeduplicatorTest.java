@@ -0,0 +1,128 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteDeduplicatorTest {
+
+    @Test
+    void testAddTwice() {
+        WriteDeduplicator deduplicator = new WriteDeduplicator(8, WriteDeduplicator.DEFAULT_MAX_WINDOWS);
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client0", "File0.txt", 5));
+        assertEquals(WriteDeduplicator.Result.Duplicate, deduplicator.add("client0", "File0.txt", 5));
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client1", "File0.txt", 5));
+    }
+
+    @Test
+    void testAddOutOfOrderWithinWindow() {
+        WriteDeduplicator deduplicator = new WriteDeduplicator(8, WriteDeduplicator.DEFAULT_MAX_WINDOWS);
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client0", "File0.txt", 10));
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client0", "File0.txt", 7));
+        assertEquals(WriteDeduplicator.Result.Duplicate, deduplicator.add("client0", "File0.txt", 7));
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client0", "File0.txt", 12));
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client0", "File0.txt", 11));
+        assertEquals(WriteDeduplicator.Result.Duplicate, deduplicator.add("client0", "File0.txt", 10));
+    }
+
+    @Test
+    void testAddBelowWindow() {
+        WriteDeduplicator deduplicator = new WriteDeduplicator(8, WriteDeduplicator.DEFAULT_MAX_WINDOWS);
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client0", "File0.txt", 100));
+        assertEquals(WriteDeduplicator.Result.Expired, deduplicator.add("client0", "File0.txt", 92));
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client0", "File0.txt", 93));
+    }
+
+    @Test
+    void testSlotReusedAfterWindowMoves() {
+        WriteDeduplicator deduplicator = new WriteDeduplicator(8, WriteDeduplicator.DEFAULT_MAX_WINDOWS);
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client0", "File0.txt", 1));
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client0", "File0.txt", 12));
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client0", "File0.txt", 9));
+        assertEquals(WriteDeduplicator.Result.Expired, deduplicator.add("client0", "File0.txt", 1));
+    }
+
+    @Test
+    void testWriteHeldUpBehindBusyFile() {
+        WriteDeduplicator deduplicator = new WriteDeduplicator(8, WriteDeduplicator.DEFAULT_MAX_WINDOWS);
+
+        // write 1 waits for File0 while far more than a window of later writes complete on File1
+        for (long requestId = 2; requestId < 100; requestId++) {
+            assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client0", "File1.txt", requestId));
+        }
+
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client0", "File0.txt", 1));
+        assertEquals(WriteDeduplicator.Result.Duplicate, deduplicator.add("client0", "File0.txt", 1));
+        assertEquals(2, deduplicator.size());
+    }
+
+    @Test
+    void testIdleWindowRetired() {
+        WriteDeduplicator deduplicator = new WriteDeduplicator(8, 2);
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client0", "File0.txt", 10));
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client0", "File0.txt", 8));
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client1", "File0.txt", 1));
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client0", "File1.txt", 1));
+        assertEquals(2, deduplicator.size());
+
+        // only the mark of client0 on File0 is left: its old ids are refused, not appended a second time
+        assertEquals(WriteDeduplicator.Result.Expired, deduplicator.add("client0", "File0.txt", 10));
+        assertEquals(WriteDeduplicator.Result.Expired, deduplicator.add("client0", "File0.txt", 9));
+        assertEquals(2, deduplicator.size());
+
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client0", "File0.txt", 12));
+        assertEquals(WriteDeduplicator.Result.Added, deduplicator.add("client0", "File0.txt", 11));
+        assertEquals(WriteDeduplicator.Result.Expired, deduplicator.add("client0", "File0.txt", 9));
+        assertEquals(WriteDeduplicator.Result.Duplicate, deduplicator.add("client0", "File0.txt", 12));
+        assertEquals(2, deduplicator.size());
+    }
+
+    @Test
+    void testSaveAndLoadRetiredWindow() throws IOException {
+        Path snapshotPath = Files.createTempDirectory("dedup").resolve(".dedup");
+
+        WriteDeduplicator deduplicator = new WriteDeduplicator(8, 1);
+        deduplicator.add("client0", "File0.txt", 20);
+        deduplicator.add("client0", "File1.txt", 5);
+        deduplicator.save(snapshotPath);
+
+        WriteDeduplicator restored = new WriteDeduplicator(8, WriteDeduplicator.DEFAULT_MAX_WINDOWS);
+        restored.load(snapshotPath);
+        assertEquals(2, restored.size());
+        assertEquals(WriteDeduplicator.Result.Duplicate, restored.add("client0", "File0.txt", 20));
+        assertEquals(WriteDeduplicator.Result.Duplicate, restored.add("client0", "File1.txt", 5));
+    }
+
+    @Test
+    void testSaveAndLoad() throws IOException {
+        Path snapshotPath = Files.createTempDirectory("dedup").resolve(".dedup");
+
+        WriteDeduplicator deduplicator = new WriteDeduplicator(8, WriteDeduplicator.DEFAULT_MAX_WINDOWS);
+        deduplicator.add("client|0", "File0.txt", 20);
+        deduplicator.add("client|0", "File1.txt", 5);
+        deduplicator.save(snapshotPath);
+
+        WriteDeduplicator restored = new WriteDeduplicator(8, WriteDeduplicator.DEFAULT_MAX_WINDOWS);
+        restored.load(snapshotPath);
+        assertEquals(2, restored.size());
+        assertEquals(WriteDeduplicator.Result.Duplicate, restored.add("client|0", "File0.txt", 20));
+        assertEquals(WriteDeduplicator.Result.Duplicate, restored.add("client|0", "File0.txt", 15));
+        assertEquals(WriteDeduplicator.Result.Added, restored.add("client|0", "File0.txt", 21));
+        assertEquals(WriteDeduplicator.Result.Added, restored.add("client|0", "File1.txt", 6));
+    }
+
+    @Test
+    void testSaveOnlyWhenChanged() throws IOException {
+        Path snapshotPath = Files.createTempDirectory("dedup").resolve(".dedup");
+
+        WriteDeduplicator deduplicator = new WriteDeduplicator(8, WriteDeduplicator.DEFAULT_MAX_WINDOWS);
+        deduplicator.save(snapshotPath);
+        assertFalse(Files.exists(snapshotPath));
+
+        deduplicator.add("client0", "File0.txt", 1);
+        deduplicator.save(snapshotPath);
+        assertTrue(Files.exists(snapshotPath));
+    }
+}
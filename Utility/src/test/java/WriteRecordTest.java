@@ -0,0 +1,41 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteRecordTest {
+
+    @Test
+    void testRoundTrip() {
+        List<WriteRecord> records = WriteRecord.parseAll(new WriteRecord("client0", 42, "Something").toString());
+
+        assertEquals(1, records.size());
+        assertEquals("client0", records.get(0).getClientName());
+        assertEquals(42, records.get(0).getRequestId());
+        assertEquals("Something", records.get(0).getLine());
+    }
+
+    @Test
+    void testBatchWithMultiLinePayload() {
+        String batch = new WriteRecord("client0", 1, "first\nclient1|7|second").toString()
+                + new WriteRecord("client1", 8, "a|b").toString()
+                + new WriteRecord("client0", 2, "").toString();
+        List<WriteRecord> records = WriteRecord.parseAll(batch);
+
+        assertEquals(3, records.size());
+        assertEquals("first\nclient1|7|second", records.get(0).getLine());
+        assertEquals(1, records.get(0).getRequestId());
+        assertEquals("client1", records.get(1).getClientName());
+        assertEquals("a|b", records.get(1).getLine());
+        assertEquals("", records.get(2).getLine());
+        assertEquals(2, records.get(2).getRequestId());
+    }
+
+    @Test
+    void testMalformed() {
+        assertThrows(IllegalArgumentException.class, () -> WriteRecord.parseAll("client0|1|line"));
+        assertThrows(IllegalArgumentException.class, () -> WriteRecord.parseAll("client0|1|9|short"));
+        assertThrows(IllegalArgumentException.class, () -> WriteRecord.parseAll("client0|x|1|a"));
+    }
+}
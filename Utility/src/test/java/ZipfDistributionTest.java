@@ -0,0 +1,49 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZipfDistributionTest {
+
+    @Test
+    void testPicksWithinRange() {
+        ZipfDistribution distribution = new ZipfDistribution(5, ZipfDistribution.DEFAULT_EXPONENT);
+        Random random = new Random(42);
+
+        for (int i = 0; i < 10000; i++) {
+            int number = distribution.next(random);
+            assertTrue(number >= 0 && number < 5);
+        }
+    }
+
+    @Test
+    void testLowNumbersArePopular() {
+        ZipfDistribution distribution = new ZipfDistribution(100, 1);
+        Random random = new Random(42);
+        int[] counts = new int[100];
+
+        for (int i = 0; i < 100000; i++) {
+            counts[distribution.next(random)]++;
+        }
+
+        // with exponent 1, number 0 is picked twice as often as number 1 and about 19% of the time over 100 numbers
+        assertEquals(2.0, (double) counts[0] / counts[1], 0.15);
+        assertEquals(0.19, counts[0] / 100000.0, 0.01);
+    }
+
+    @Test
+    void testExponentZeroIsUniform() {
+        ZipfDistribution distribution = new ZipfDistribution(4, 0);
+        Random random = new Random(42);
+        int[] counts = new int[4];
+
+        for (int i = 0; i < 40000; i++) {
+            counts[distribution.next(random)]++;
+        }
+
+        for (int count : counts) {
+            assertEquals(10000, count, 500);
+        }
+    }
+}